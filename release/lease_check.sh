@@ -0,0 +1,69 @@
+#!/bin/sh
+# Runs several instances sharing jobs through leases on one Linux box and checks the results:
+#  - no job is run by two instances at the same time
+#  - jobs are spread across the instances (each instance runs about jobs / instances jobs per round)
+#  - jobs of a killed instance are taken over after the lease TTL
+#
+# Usage: release/lease_check.sh [instances] [jobs]   (run "mvn package" first)
+
+INSTANCES=${1:-3}
+JOBS=${2:-7}
+TTL_SEC=3
+WORK_MSEC=300
+ROUNDS=15
+PAUSE_MSEC=500
+
+JAR=$(ls target/gcalsync-*-jar-with-dependencies.jar 2>/dev/null | head -1)
+if [ -z "$JAR" ]; then
+    echo "Jar not found, run mvn package first"
+    exit 1
+fi
+
+DIR=$(mktemp -d)
+echo "Lease directory $DIR"
+
+PIDS=""
+for i in $(seq 1 "$INSTANCES"); do
+    java -cp "$JAR" net.czechit.gcalsync.LeaseCheck "$DIR" "$JOBS" "instance-$i" $TTL_SEC $WORK_MSEC $ROUNDS $PAUSE_MSEC \
+        > "$DIR/instance-$i.log" 2>&1 &
+    PIDS="$PIDS $!"
+done
+
+# kill the first instance in the middle of the test, its jobs have to be taken over
+sleep 4
+FIRST=$(echo $PIDS | cut -d' ' -f1)
+kill -9 "$FIRST"
+KILLED_AT=$(date +%s%3N)
+echo "Killed instance-1"
+
+for pid in $PIDS; do
+    wait "$pid" 2>/dev/null
+done
+
+echo "Job runs per instance:"
+grep '^START' "$DIR/journal.log" | awk '{print $3}' | sort | uniq -c
+
+# overlapping runs of the same job by different owners (unfinished run of the killed instance doesn't count)
+OVERLAPS=$(sort -k5,5n "$DIR/journal.log" | awk '
+    $1 == "START" { if (($2 in owner) && owner[$2] != "instance-1") print "OVERLAP " $2 " " owner[$2] " " $3; owner[$2] = $3 }
+    $1 == "END"   { if (owner[$2] == $3) delete owner[$2] }')
+if [ -n "$OVERLAPS" ]; then
+    echo "$OVERLAPS"
+fi
+
+# every job has to be run by a live instance after the TTL of the killed one passes
+MISSING=0
+for j in $(seq 1 "$JOBS"); do
+    if ! awk -v job="sync.$j" -v since=$((KILLED_AT + TTL_SEC * 1000)) \
+        '$1 == "START" && $2 == job && $5 > since && $3 != "instance-1" { found = 1 } END { exit !found }' "$DIR/journal.log"; then
+        echo "Job sync.$j was not taken over"
+        MISSING=1
+    fi
+done
+
+if [ -n "$OVERLAPS" ] || [ $MISSING -ne 0 ]; then
+    echo "FAILED, see $DIR"
+    exit 1
+fi
+echo "OK"
+rm -rf "$DIR"
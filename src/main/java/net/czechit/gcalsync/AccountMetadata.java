@@ -0,0 +1,100 @@
+package net.czechit.gcalsync;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Key;
+import com.google.api.services.calendar.model.CalendarListEntry;
+import com.google.api.services.calendar.model.Colors;
+
+import java.util.List;
+
+/**
+ * Metadata about the account (calendar list, color palette and time zone) cached on disk,
+ * so they don't need to be loaded from API on every run.
+ */
+public class AccountMetadata extends GenericJson
+{
+    /** Time (in msec) when the metadata were loaded from API */
+    @Key
+    private Long fetchedAt;
+
+    /** Time zone of the primary calendar of the account */
+    @Key
+    private String timeZone;
+
+    @Key
+    private List<CalendarListEntry> calendars;
+
+    @Key
+    private Colors colors;
+
+    public boolean isExpired(long ttlMsec)
+    {
+        return fetchedAt == null || System.currentTimeMillis() - fetchedAt > ttlMsec;
+    }
+
+    /**
+     * Returns calendar from calendar list
+     * @param calendarId ID of the calendar, "primary" is accepted too
+     * @return calendar or null if it doesn't exist in the list
+     */
+    public CalendarListEntry findCalendar(String calendarId)
+    {
+        if (calendars == null)
+            return null;
+
+        for (CalendarListEntry ce : calendars)
+        {
+            if (ce.getId().equals(calendarId) || ("primary".equals(calendarId) && Boolean.TRUE.equals(ce.getPrimary())))
+                return ce;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the color ID is defined in the palette of event colors
+     */
+    public boolean isEventColorValid(String colorId)
+    {
+        return colors != null && colors.getEvent() != null && colors.getEvent().containsKey(colorId);
+    }
+
+    public Long getFetchedAt()
+    {
+        return fetchedAt;
+    }
+
+    public void setFetchedAt(Long fetchedAt)
+    {
+        this.fetchedAt = fetchedAt;
+    }
+
+    public String getTimeZone()
+    {
+        return timeZone;
+    }
+
+    public void setTimeZone(String timeZone)
+    {
+        this.timeZone = timeZone;
+    }
+
+    public List<CalendarListEntry> getCalendars()
+    {
+        return calendars;
+    }
+
+    public void setCalendars(List<CalendarListEntry> calendars)
+    {
+        this.calendars = calendars;
+    }
+
+    public Colors getColors()
+    {
+        return colors;
+    }
+
+    public void setColors(Colors colors)
+    {
+        this.colors = colors;
+    }
+}
@@ -0,0 +1,111 @@
+package net.czechit.gcalsync;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Two level hash tree of the calendar content - root hash combines hashes of monthly buckets, bucket hash combines
+ * hashes of events starting in that month. Two trees are compared top-down, so only events in buckets with
+ * different hashes are compared one by one.
+ */
+public class BucketHashTree
+{
+    /** bucket (like 2018-01) -> event key -> content hash */
+    private final Map<String, Map<String, Long>> buckets = new HashMap<String, Map<String, Long>>();
+
+    /** bucket -> combined hash of its events */
+    private final Map<String, Long> bucketHashes = new HashMap<String, Long>();
+
+    private long rootHash;
+
+    /**
+     * Adds event to the tree
+     * @param key key identifying the event on both sides
+     * @param start start of the event (in msec), determines the bucket
+     * @param contentHash hash of the projected content of the event
+     */
+    public void add(String key, long start, long contentHash)
+    {
+        String bucket = YearMonth.from(Instant.ofEpochMilli(start).atZone(ZoneOffset.UTC)).toString();
+        Map<String, Long> events = buckets.get(bucket);
+        if (events == null)
+        {
+            events = new HashMap<String, Long>();
+            buckets.put(bucket, events);
+        }
+        events.put(key, contentHash);
+
+        // Combination by addition doesn't depend on the order in which the events were added
+        long eventHash = mix(key.hashCode() * 0x9e3779b97f4a7c15L + contentHash);
+        bucketHashes.put(bucket, bucketHashes.getOrDefault(bucket, 0L) + eventHash);
+        rootHash += mix(bucket.hashCode() + eventHash);
+    }
+
+    public long getRootHash()
+    {
+        return rootHash;
+    }
+
+    /**
+     * Returns buckets whose hashes differ between the trees
+     */
+    public Set<String> differingBuckets(BucketHashTree other)
+    {
+        Set<String> result = new TreeSet<String>();
+        if (rootHash == other.rootHash)
+            return result;
+
+        Set<String> all = new HashSet<String>(bucketHashes.keySet());
+        all.addAll(other.bucketHashes.keySet());
+        for (String bucket : all)
+        {
+            if (!Objects.equals(bucketHashes.get(bucket), other.bucketHashes.get(bucket)))
+                result.add(bucket);
+        }
+        return result;
+    }
+
+    /**
+     * Returns keys of events in the bucket whose hashes differ or which exist only in one of the trees
+     */
+    public Set<String> differingKeys(BucketHashTree other, String bucket)
+    {
+        Map<String, Long> mine = buckets.getOrDefault(bucket, new HashMap<String, Long>());
+        Map<String, Long> theirs = other.buckets.getOrDefault(bucket, new HashMap<String, Long>());
+
+        Set<String> result = new TreeSet<String>();
+        Set<String> all = new HashSet<String>(mine.keySet());
+        all.addAll(theirs.keySet());
+        for (String key : all)
+        {
+            if (!Objects.equals(mine.get(key), theirs.get(key)))
+                result.add(key);
+        }
+        return result;
+    }
+
+    public int getBucketCount()
+    {
+        return buckets.size();
+    }
+
+    /**
+     * Finalization step of the 64-bit MurmurHash3, spreads bits of the value
+     */
+    private static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe2e3d9b9L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
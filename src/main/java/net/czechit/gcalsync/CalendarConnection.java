@@ -7,7 +7,6 @@ import com.google.api.client.extensions.java6.auth.oauth2.AuthorizationCodeInsta
 import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
@@ -22,6 +21,7 @@ import com.jcabi.aspects.Loggable;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
@@ -52,6 +52,21 @@ public class CalendarConnection
     private String settingsCredentialsDir;
     private String settingsAccountName;
 
+    /**
+     * Name of the file in credentialsDir where the account metadata are cached
+     */
+    private static final String METADATA_CACHE_FILE_NAME = "accountMetadata.json";
+
+    /**
+     * Optional - how long (in msec) are the cached account metadata valid, set by metadataCacheTtlHours
+     */
+    private long metadataCacheTtlMsec = 24L * 3600 * 1000;
+
+    /**
+     * Account metadata, loaded lazily by getAccountMetadata()
+     */
+    private AccountMetadata accountMetadata;
+
     /**
      * Application name.
      */
@@ -78,6 +93,12 @@ public class CalendarConnection
      */
     private HttpTransport httpTransport;
 
+    /**
+     * Optional - connect and read timeouts of requests (in msec), 0 = default of the client library
+     */
+    private int connectTimeoutMsec;
+    private int readTimeoutMsec;
+
     /**
      * Global instance of the scopes required by this quickstart.
      */
@@ -92,11 +113,17 @@ public class CalendarConnection
         this.settingsCredentialsDir = settings.getProperty(settingsPrefix, "credentialsDir");
         this.settingsAccountName = settings.getProperty(settingsPrefix, "name");
 
+        String ttlStr = settings.getNonmandatoryProperty(settingsPrefix, "metadataCacheTtlHours");
+        if (!ttlStr.isEmpty())
+            this.metadataCacheTtlMsec = Long.parseLong(ttlStr) * 3600 * 1000;
+
         this.applicationName = settings.getApplicationName();
         this.scopes = Arrays.asList(CalendarScopes.CALENDAR);
         this.dataStoreDir = new java.io.File(this.settingsCredentialsDir);
 
-        httpTransport = GoogleNetHttpTransport.newTrustedTransport();
+        httpTransport = HttpTransportFactory.getTransport(settings);
+        connectTimeoutMsec = HttpTransportFactory.getTimeoutMsec(settings, "http.connectTimeoutSec");
+        readTimeoutMsec = HttpTransportFactory.getTimeoutMsec(settings, "http.readTimeoutSec");
         fileDataStoreFactory = new FileDataStoreFactory(dataStoreDir);
 
         service = getCalendarService();
@@ -157,9 +184,15 @@ public class CalendarConnection
     public com.google.api.services.calendar.Calendar getCalendarService()
             throws IOException, Exception
     {
-        Credential credential = authorize();
+        final Credential credential = authorize();
         return new com.google.api.services.calendar.Calendar.Builder(
-                httpTransport, JSON_FACTORY, credential).setApplicationName(
+                httpTransport, JSON_FACTORY, request -> {
+                    credential.initialize(request);
+                    if (connectTimeoutMsec > 0)
+                        request.setConnectTimeout(connectTimeoutMsec);
+                    if (readTimeoutMsec > 0)
+                        request.setReadTimeout(readTimeoutMsec);
+                }).setApplicationName(
                 applicationName).build();
     }
 
@@ -178,46 +211,78 @@ public class CalendarConnection
         return items;
     }
 
-    public void logInfoAboutAccount()
+    /**
+     * Returns metadata about the account (calendar list, colors, time zone). Metadata are loaded lazily from the cache
+     * file in credentialsDir and they are loaded from API only if the cache doesn't exist or is older than
+     * metadataCacheTtlHours.
+     * @return metadata about the account
+     * @throws IOException
+     */
+    public synchronized AccountMetadata getAccountMetadata() throws IOException
     {
-        logCalendarList();
-        logCalendarColors();
-    }
+        if (accountMetadata != null && !accountMetadata.isExpired(metadataCacheTtlMsec))
+            return accountMetadata;
 
-    private void logCalendarList()
-    {
-        try {
-            logger.debug(String.format("List of calendars for %s", settingsAccountName));
-            for (CalendarListEntry ce : this.getCalendarList())
+        File cacheFile = new File(dataStoreDir, METADATA_CACHE_FILE_NAME);
+        if (accountMetadata == null && cacheFile.exists())
+        {
+            try (FileInputStream in = new FileInputStream(cacheFile))
+            {
+                accountMetadata = JSON_FACTORY.fromInputStream(in, AccountMetadata.class);
+            }
+            catch (Exception e)
             {
-                logger.debug(String.format("  - Summary: %s, id: %s", ce.getSummary(), ce.getId()));
+                logger.warn(String.format("Unable to read account metadata cache %s, it will be reloaded", cacheFile), e);
+                accountMetadata = null;
             }
         }
-        catch (Exception e)
+
+        if (accountMetadata == null || accountMetadata.isExpired(metadataCacheTtlMsec))
         {
-            logger.warn("Unable to get calendar list", e);
+            accountMetadata = loadAccountMetadata();
+            try (FileOutputStream out = new FileOutputStream(cacheFile))
+            {
+                out.write(JSON_FACTORY.toByteArray(accountMetadata));
+            }
+            catch (IOException e)
+            {
+                logger.warn(String.format("Unable to save account metadata cache %s", cacheFile), e);
+            }
         }
+        return accountMetadata;
     }
 
-    private void logCalendarColors()
+    /**
+     * Loads metadata about the account from API
+     */
+    private AccountMetadata loadAccountMetadata() throws IOException
     {
-        try
-        {
-            Colors colors = this.getService().colors().get().execute();
+        AccountMetadata metadata = new AccountMetadata();
+        metadata.setFetchedAt(System.currentTimeMillis());
 
-            // Print available calendar list entry colors
-            logger.debug(String.format("List of calendar colors for %s", settingsAccountName));
-            for (Map.Entry<String, ColorDefinition> color : colors.getCalendar().entrySet())
-            {
-                logger.debug("  - ColorId : " + color.getKey());
-                logger.debug("    Background: " + color.getValue().getBackground());
-                logger.debug("    Foreground: " + color.getValue().getForeground());
-            }
+        logger.debug(String.format("List of calendars for %s", settingsAccountName));
+        List<CalendarListEntry> calendars = this.getCalendarList();
+        for (CalendarListEntry ce : calendars)
+        {
+            logger.debug(String.format("  - Summary: %s, id: %s", ce.getSummary(), ce.getId()));
         }
-        catch (IOException e)
+        metadata.setCalendars(calendars);
+
+        CalendarListEntry primary = metadata.findCalendar("primary");
+        if (primary != null)
+            metadata.setTimeZone(primary.getTimeZone());
+
+        Colors colors = this.getService().colors().get().execute();
+        logger.debug(String.format("List of calendar colors for %s", settingsAccountName));
+        for (Map.Entry<String, ColorDefinition> color : colors.getCalendar().entrySet())
         {
-            logger.error("Error in logCalendarColors", e);
+            logger.debug("  - ColorId : " + color.getKey());
+            logger.debug("    Background: " + color.getValue().getBackground());
+            logger.debug("    Foreground: " + color.getValue().getForeground());
         }
+        metadata.setColors(colors);
+
+        return metadata;
     }
 
     public String getSettingsAccountName()
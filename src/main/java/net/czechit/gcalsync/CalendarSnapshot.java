@@ -0,0 +1,310 @@
+package net.czechit.gcalsync;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.calendar.model.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Local snapshot of the synchronized calendar pair - for every source event synchronized to the destination calendar
+ * it keeps id, etag, hash of the content written to the destination, start, end and recurrence.
+ *
+ * The snapshot is stored in compact binary file, which is memory-mapped when loaded (entries are copied out and
+ * the mapping is released right after loading):
+ * <pre>
+ * int magic ("GCSS"), int version, long createdAt, int count,
+ * count x (string id, string etag, long contentHash, long start, long end, string recurrence),
+ * long CRC32 of all previous bytes
+ * </pre>
+ * Strings are stored as unsigned short length followed by UTF-8 bytes.
+ */
+public class CalendarSnapshot
+{
+    private final static Logger logger = LoggerFactory.getLogger(CalendarSnapshot.class);
+
+    private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+
+    private static final int MAGIC = 0x47435353; // GCSS
+    private static final int VERSION = 1;
+
+    /** State of one synchronized event */
+    public static class Entry
+    {
+        public final String id;
+        public final String etag;
+        public final long contentHash;
+        public final long start;
+        public final long end;
+        public final String recurrence;
+
+        public Entry(String id, String etag, long contentHash, long start, long end, String recurrence)
+        {
+            this.id = id;
+            this.etag = etag;
+            this.contentHash = contentHash;
+            this.start = start;
+            this.end = end;
+            this.recurrence = recurrence;
+        }
+    }
+
+    private final Path file;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Time (in msec) when listing of the source changes started in the last successful synchronization,
+     * the snapshot reflects all changes made before it. 0 if unknown.
+     */
+    private long createdAt;
+
+    private volatile boolean dirty;
+
+    private CalendarSnapshot(Path file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Loads snapshot from the file. Missing, corrupted or incompatible file results in empty snapshot.
+     * @param file snapshot file
+     * @return loaded snapshot
+     */
+    public static CalendarSnapshot load(Path file)
+    {
+        CalendarSnapshot snapshot = new CalendarSnapshot(file);
+        if (!Files.exists(file))
+            return snapshot;
+
+        MappedByteBuffer buffer = null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            snapshot.read(buffer);
+            logger.debug(String.format("Snapshot %s loaded, %d events", file, snapshot.entries.size()));
+        }
+        catch (Exception e)
+        {
+            logger.warn(String.format("Snapshot %s cannot be used, starting with empty snapshot", file), e);
+            snapshot.entries.clear();
+            snapshot.createdAt = 0;
+        }
+        finally
+        {
+            if (buffer != null)
+                unmap(buffer);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Releases the mapping right away instead of waiting for garbage collection - on Windows the mapped file
+     * cannot be replaced by save() while it is mapped. The buffer must not be used afterwards.
+     */
+    private static void unmap(MappedByteBuffer buffer)
+    {
+        try
+        {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            logger.debug("Unable to release mapping of the snapshot, it is released by garbage collector", e);
+        }
+    }
+
+    private void read(ByteBuffer buffer) throws IOException
+    {
+        if (buffer.limit() < 28)
+            throw new IOException("Snapshot file is too short");
+
+        ByteBuffer content = buffer.duplicate();
+        content.limit(buffer.limit() - 8);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if (crc.getValue() != buffer.getLong(buffer.limit() - 8))
+            throw new IOException("Snapshot checksum doesn't match");
+
+        if (buffer.getInt() != MAGIC)
+            throw new IOException("Not a snapshot file");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported snapshot version " + version);
+
+        createdAt = buffer.getLong();
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++)
+        {
+            Entry entry = new Entry(readString(buffer), readString(buffer), buffer.getLong(), buffer.getLong(),
+                    buffer.getLong(), readString(buffer));
+            entries.put(entry.id, entry);
+        }
+    }
+
+    /**
+     * Writes the snapshot to the file (through temporary file, so the previous snapshot stays valid on failure).
+     * Nothing is written if the snapshot was not changed.
+     */
+    public void save()
+    {
+        if (!dirty)
+            return;
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try
+        {
+            CRC32 crc = new CRC32();
+            try (OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(tmp.toFile())))
+            {
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(fileOut, crc));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(createdAt);
+                Entry[] snapshotEntries = entries.values().toArray(new Entry[0]);
+                out.writeInt(snapshotEntries.length);
+                for (Entry entry : snapshotEntries)
+                {
+                    writeString(out, entry.id);
+                    writeString(out, entry.etag);
+                    out.writeLong(entry.contentHash);
+                    out.writeLong(entry.start);
+                    out.writeLong(entry.end);
+                    writeString(out, entry.recurrence);
+                }
+                out.flush();
+                new DataOutputStream(fileOut).writeLong(crc.getValue());
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+            logger.debug(String.format("Snapshot %s saved, %d events", file, entries.size()));
+        }
+        catch (IOException e)
+        {
+            logger.error(String.format("Error in saving snapshot %s", file), e);
+        }
+    }
+
+    /**
+     * Returns true if the event was already synchronized with the same content
+     * @param id ID of the source event
+     * @param contentHash hash of the content mapped for the destination calendar
+     */
+    public boolean isUnchanged(String id, long contentHash)
+    {
+        Entry entry = entries.get(id);
+        return entry != null && entry.contentHash == contentHash;
+    }
+
+    /**
+     * Records the source event synchronized to the destination calendar
+     * @param event source event
+     * @param contentHash hash of the content written to the destination calendar
+     */
+    public void put(Event event, long contentHash)
+    {
+        Long start = SyncHorizon.toMillis(event.getStart());
+        Long end = SyncHorizon.toMillis(event.getEnd());
+        String recurrence = (event.getRecurrence() != null) ? String.join("\n", event.getRecurrence()) : "";
+        entries.put(event.getId(), new Entry(event.getId(), (event.getEtag() != null) ? event.getEtag() : "", contentHash,
+                (start != null) ? start : 0, (end != null) ? end : 0, recurrence));
+        dirty = true;
+    }
+
+    /**
+     * Removes the event deleted from the destination calendar
+     * @param id ID of the source event
+     */
+    public void remove(String id)
+    {
+        if (entries.remove(id) != null)
+            dirty = true;
+    }
+
+    public Entry get(String id)
+    {
+        return entries.get(id);
+    }
+
+    public Map<String, Entry> getEntries()
+    {
+        return entries;
+    }
+
+    public long getCreatedAt()
+    {
+        return createdAt;
+    }
+
+    /**
+     * Marks the snapshot as reflecting all source changes made before the given time. Called only when
+     * the synchronization finished and its sync token was saved, so a failed run keeps the previous time.
+     * @param createdAt time (in msec) when listing of the source changes started
+     */
+    public void setCreatedAt(long createdAt)
+    {
+        this.createdAt = createdAt;
+        dirty = true;
+    }
+
+    /**
+     * Computes 64-bit hash (FNV-1a) of the event content as it is written to the destination calendar
+     * @param mappedEvent event mapped from the source event
+     * @return hash of the content
+     */
+    public static long contentHash(Event mappedEvent)
+    {
+        long hash = 0xcbf29ce484222325L;
+        try
+        {
+            for (byte b : JSON_FACTORY.toByteArray(mappedEvent))
+            {
+                hash ^= (b & 0xff);
+                hash *= 0x100000001b3L;
+            }
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to serialize event", e);
+        }
+        return hash;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff)
+            throw new IOException("String too long for snapshot");
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,76 @@
+package net.czechit.gcalsync;
+
+import com.google.api.services.calendar.model.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes redundant changes from the list of changed events loaded from the source calendar before they are
+ * synchronized. Only the last state of each event is kept, changes of instances of the recurring event
+ * are dropped if the whole series is cancelled and the changes are ordered so the master event of the series
+ * is always synchronized before its instances.
+ *
+ * Changes of instances are not dropped when the master event is rewritten, because the change stream contains the
+ * current state of each instance exception and it would be lost otherwise.
+ */
+public class ChangeCoalescer
+{
+    private final static Logger logger = LoggerFactory.getLogger(ChangeCoalescer.class);
+
+    /**
+     * Coalesces changes
+     * @param events changed events in the order they were loaded from source calendar
+     * @return coalesced events in order in which they should be synchronized
+     */
+    public static List<Event> coalesce(List<Event> events)
+    {
+        // Last state of each event, grouped by series in order of first appearance of the series
+        Map<String, Map<String, Event>> series = new LinkedHashMap<String, Map<String, Event>>();
+        for (Event event : events)
+        {
+            String key = EventApplier.seriesKey(event);
+            Map<String, Event> seriesEvents = series.get(key);
+            if (seriesEvents == null)
+            {
+                seriesEvents = new LinkedHashMap<String, Event>();
+                series.put(key, seriesEvents);
+            }
+            seriesEvents.remove(event.getId()); // last state moves to the end
+            seriesEvents.put(event.getId(), event);
+        }
+
+        List<Event> result = new ArrayList<Event>(events.size());
+        for (Map<String, Event> seriesEvents : series.values())
+        {
+            // Master events first, ids of cancelled ones are remembered
+            Set<String> cancelledMasters = new HashSet<String>();
+            for (Event event : seriesEvents.values())
+            {
+                if (!EventApplier.isInstance(event))
+                {
+                    result.add(event);
+                    if ("cancelled".equals(event.getStatus()))
+                        cancelledMasters.add(event.getId());
+                }
+            }
+
+            for (Event event : seriesEvents.values())
+            {
+                // Changes of instances of deleted series are redundant
+                if (EventApplier.isInstance(event) && !cancelledMasters.contains(event.getRecurringEventId()))
+                    result.add(event);
+            }
+        }
+
+        if (result.size() < events.size())
+            logger.debug(String.format("Coalesced %d changes into %d", events.size(), result.size()));
+        return result;
+    }
+}
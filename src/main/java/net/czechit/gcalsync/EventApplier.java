@@ -0,0 +1,261 @@
+package net.czechit.gcalsync;
+
+import com.google.api.services.calendar.model.Event;
+import net.czechit.gcalsync.jfr.Span;
+import net.czechit.gcalsync.jfr.Tracing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies synchronization of events concurrently. Operations belonging to the same event series
+ * (same base id or recurringEventId) are always applied one after another in the order they were submitted,
+ * so master/instance/cancel ordering is kept. Independent events are applied in parallel up to the configured
+ * concurrency, all of them respecting the rate limiter of the destination account.
+ *
+ * Operations ready to be applied wait in priority queue ordered by EventPriority, so events starting soon
+ * are applied before the rest of the backlog.
+ */
+public class EventApplier
+{
+    private final static Logger logger = LoggerFactory.getLogger(EventApplier.class);
+
+    /** Action performing synchronization of one event */
+    public interface EventAction
+    {
+        void apply(Event event) throws Exception;
+    }
+
+    /** Operation waiting in the ready queue */
+    private static class PendingEvent implements Comparable<PendingEvent>
+    {
+        final Event event;
+        final long deadline;
+        final long sequence;
+        final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+        PendingEvent(Event event, long deadline, long sequence)
+        {
+            this.event = event;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(PendingEvent o)
+        {
+            int c = Long.compare(deadline, o.deadline);
+            return (c != 0) ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    /** Job prefix (like sync.1), used in tracing */
+    private final String job;
+
+    private final EventAction action;
+    private final RateLimiter rateLimiter;
+    private final EventPriority priority;
+    private final ExecutorService executor;
+
+    /** Operations whose predecessors in the series were applied, ordered by priority */
+    private final PriorityBlockingQueue<PendingEvent> ready = new PriorityBlockingQueue<PendingEvent>();
+
+    /** Order of submission, used for operations with the same deadline */
+    private long sequence;
+
+    private volatile boolean closed;
+
+    /** Last submitted operation for each series, next operation of the same series is chained after it */
+    private final Map<String, CompletableFuture<Void>> seriesTails = new HashMap<String, CompletableFuture<Void>>();
+
+    /** Maximal number of submitted operations not yet applied, submit() blocks when it is reached */
+    private final int maxQueued;
+
+    /** Permits for submitted operations not yet applied, keeps memory bounded when events are submitted faster than applied */
+    private final Semaphore queued;
+
+    /**
+     * @param job job prefix, like sync.1
+     * @param action action synchronizing one event
+     * @param concurrency number of events applied at the same time
+     * @param maxQueued maximal number of submitted events not yet applied
+     * @param rateLimiter rate limiter of the destination account
+     * @param priority priority of events
+     */
+    public EventApplier(String job, EventAction action, int concurrency, int maxQueued, RateLimiter rateLimiter, EventPriority priority)
+    {
+        this.job = job;
+        this.action = action;
+        this.rateLimiter = rateLimiter;
+        this.priority = priority;
+        this.maxQueued = Math.max(1, maxQueued);
+        this.queued = new Semaphore(this.maxQueued);
+
+        int workers = Math.max(1, concurrency);
+        this.executor = newExecutor(workers);
+        for (int i = 0; i < workers; i++)
+            executor.execute(this::work);
+    }
+
+    /**
+     * Creates virtual thread executor when running on JDK 21+, otherwise fixed thread pool (the build targets
+     * Java 11, so virtual threads are looked up reflectively). The executor runs exactly one worker per unit
+     * of concurrency in both cases.
+     */
+    private static ExecutorService newExecutor(int concurrency)
+    {
+        try
+        {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            logger.debug("Using virtual threads for applying events");
+            return (ExecutorService) m.invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            logger.debug(String.format("Virtual threads not available, using thread pool of size %d", concurrency));
+            return Executors.newFixedThreadPool(concurrency);
+        }
+    }
+
+    /**
+     * Worker loop - takes operations from the ready queue in order of priority and applies them
+     */
+    private void work()
+    {
+        while (!closed)
+        {
+            PendingEvent pending;
+            try
+            {
+                pending = ready.poll(1, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            if (pending == null)
+                continue;
+
+            try
+            {
+                applyEvent(pending.event);
+            }
+            catch (Throwable e)
+            {
+                // worker must survive, otherwise remaining events are never applied and awaitCompletion() hangs
+                logger.error("Unexpected error during syncing " + pending.event.getId(), e);
+            }
+            finally
+            {
+                pending.future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Returns key of the series the event belongs to - base id (id without suffix like _R20171018T130000) of the
+     * recurringEventId for instances of recurring events, base id of the event itself otherwise.
+     */
+    public static String seriesKey(Event event)
+    {
+        String id = isInstance(event) ? event.getRecurringEventId() : event.getId();
+        int i = id.indexOf('_');
+        return (i > 0) ? id.substring(0, i) : id;
+    }
+
+    /**
+     * Returns true if the event is an instance of recurring event
+     */
+    public static boolean isInstance(Event event)
+    {
+        return event.getRecurringEventId() != null && !event.getRecurringEventId().isEmpty();
+    }
+
+    /**
+     * Submits event to be applied. The event is applied after all previously submitted events of the same series.
+     * Blocks if too many submitted events are waiting to be applied.
+     * @param event event to be synchronized
+     * @throws InterruptedException
+     */
+    public void submit(final Event event) throws InterruptedException
+    {
+        queued.acquire();
+
+        final String key = seriesKey(event);
+        long now = System.currentTimeMillis();
+        final PendingEvent pending;
+        synchronized (seriesTails)
+        {
+            pending = new PendingEvent(event, priority.deadline(event, now), sequence++);
+            CompletableFuture<Void> previous = seriesTails.get(key);
+            seriesTails.put(key, pending.future);
+            if (previous == null)
+                ready.add(pending);
+            else
+                previous.whenComplete((result, e) -> ready.add(pending));
+        }
+
+        pending.future.whenComplete((result, e) -> {
+            synchronized (seriesTails)
+            {
+                seriesTails.remove(key, pending.future);
+            }
+            queued.release();
+        });
+    }
+
+    private void applyEvent(Event event)
+    {
+        try
+        {
+            Span throttleSpan = Tracing.throttle(job, event.getId());
+            rateLimiter.acquire();
+            throttleSpan.finish(null);
+            action.apply(event);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted during syncing " + event.getId() + " - " + event.getSummary(), e);
+        }
+        catch (Exception e)
+        {
+            logger.error("Problem during syncing " + event.getId() + " - " + event.getSummary(), e);
+        }
+    }
+
+    /**
+     * Waits until all submitted events are applied
+     */
+    public void awaitCompletion() throws InterruptedException
+    {
+        queued.acquire(maxQueued);
+        queued.release(maxQueued);
+    }
+
+    /**
+     * Waits for all submitted events and stops all threads
+     */
+    public void close()
+    {
+        try
+        {
+            awaitCompletion();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        closed = true;
+        executor.shutdownNow();
+    }
+}
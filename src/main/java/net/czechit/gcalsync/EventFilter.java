@@ -0,0 +1,175 @@
+package net.czechit.gcalsync;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventAttendee;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Filter deciding which source events are not synchronized. All conditions are loaded from settings
+ * (keys sync.N.filter.*) and compiled once, the filter is evaluated before any call to the destination calendar.
+ * Event is skipped if any of the configured conditions matches. Cancelled events are never skipped, so the deletion
+ * is always propagated to the destination calendar.
+ */
+public class EventFilter
+{
+    private final static Logger logger = LoggerFactory.getLogger(EventFilter.class);
+
+    /** Condition on the source event */
+    private interface Condition
+    {
+        boolean matches(Event event);
+    }
+
+    /** Compiled conditions, event is skipped if any of them matches */
+    private final List<Condition> conditions = new ArrayList<Condition>();
+
+    /** Descriptions of the conditions used in logs, same order as conditions */
+    private final List<String> descriptions = new ArrayList<String>();
+
+    public EventFilter(CalendarSettings settings, String prefix)
+    {
+        // Legacy setting - plain text in description
+        String skipSynchroPattern = settings.getNonmandatoryProperty(prefix, "description.skipSynchroPattern");
+        if (!skipSynchroPattern.isEmpty())
+            addPattern("description.skipSynchroPattern", Pattern.compile(Pattern.quote(skipSynchroPattern)), false);
+
+        String summaryPattern = settings.getNonmandatoryProperty(prefix, "filter.skipSummaryPattern");
+        if (!summaryPattern.isEmpty())
+            addPattern("filter.skipSummaryPattern", Pattern.compile(summaryPattern), true);
+
+        String descriptionPattern = settings.getNonmandatoryProperty(prefix, "filter.skipDescriptionPattern");
+        if (!descriptionPattern.isEmpty())
+            addPattern("filter.skipDescriptionPattern", Pattern.compile(descriptionPattern), false);
+
+        String startBefore = settings.getNonmandatoryProperty(prefix, "filter.skipStartBefore");
+        if (!startBefore.isEmpty())
+        {
+            final long limit = DateTime.parseRfc3339(startBefore).getValue();
+            add("filter.skipStartBefore", event -> {
+                Long start = SyncHorizon.toMillis(event.getStart());
+                return start != null && start < limit;
+            });
+        }
+
+        String startAfter = settings.getNonmandatoryProperty(prefix, "filter.skipStartAfter");
+        if (!startAfter.isEmpty())
+        {
+            final long limit = DateTime.parseRfc3339(startAfter).getValue();
+            add("filter.skipStartAfter", event -> {
+                Long start = SyncHorizon.toMillis(event.getStart());
+                return start != null && start > limit;
+            });
+        }
+
+        final Set<String> transparency = valueSet(settings.getNonmandatoryProperty(prefix, "filter.skipTransparency"));
+        if (!transparency.isEmpty())
+            add("filter.skipTransparency", event -> transparency.contains(lower(nvl(event.getTransparency(), "opaque"))));
+
+        final Set<String> visibility = valueSet(settings.getNonmandatoryProperty(prefix, "filter.skipVisibility"));
+        if (!visibility.isEmpty())
+            add("filter.skipVisibility", event -> visibility.contains(lower(nvl(event.getVisibility(), "default"))));
+
+        final Set<String> organizers = valueSet(settings.getNonmandatoryProperty(prefix, "filter.skipOrganizers"));
+        if (!organizers.isEmpty())
+            add("filter.skipOrganizers", event -> event.getOrganizer() != null && event.getOrganizer().getEmail() != null
+                    && organizers.contains(lower(event.getOrganizer().getEmail())));
+
+        final Set<String> responseStatus = valueSet(settings.getNonmandatoryProperty(prefix, "filter.skipResponseStatus"));
+        if (!responseStatus.isEmpty())
+            add("filter.skipResponseStatus", event -> {
+                EventAttendee self = selfAttendee(event);
+                return self != null && self.getResponseStatus() != null && responseStatus.contains(lower(self.getResponseStatus()));
+            });
+
+        final Set<String> eventTypes = valueSet(settings.getNonmandatoryProperty(prefix, "filter.skipEventTypes"));
+        if (!eventTypes.isEmpty())
+            add("filter.skipEventTypes", event -> eventTypes.contains(lower(nvl((String) event.get("eventType"), "default"))));
+
+        logger.debug(String.format("Event filter for %s compiled with conditions: %s", prefix, descriptions));
+    }
+
+    /**
+     * Returns true if the event should not be synchronized
+     * @param event source event
+     */
+    public boolean isSkipped(Event event)
+    {
+        if ("cancelled".equals(event.getStatus()))
+            return false;
+
+        for (int i = 0; i < conditions.size(); i++)
+        {
+            if (conditions.get(i).matches(event))
+            {
+                logger.debug(String.format("Source event %s (id %s) matches %s, so it will not be synchronized to destination calendar",
+                        event.getSummary(), event.getId(), descriptions.get(i)));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty()
+    {
+        return conditions.isEmpty();
+    }
+
+    private void add(String description, Condition condition)
+    {
+        descriptions.add(description);
+        conditions.add(condition);
+    }
+
+    private void addPattern(String description, final Pattern pattern, final boolean summary)
+    {
+        add(description, event -> {
+            String text = summary ? event.getSummary() : event.getDescription();
+            return text != null && pattern.matcher(text).find();
+        });
+    }
+
+    private static EventAttendee selfAttendee(Event event)
+    {
+        if (event.getAttendees() == null)
+            return null;
+        for (EventAttendee attendee : event.getAttendees())
+        {
+            if (Boolean.TRUE.equals(attendee.getSelf()))
+                return attendee;
+        }
+        return null;
+    }
+
+    /**
+     * Parses comma separated list of values into lower case set
+     */
+    private static Set<String> valueSet(String value)
+    {
+        Set<String> values = new HashSet<String>();
+        for (String v : value.split(","))
+        {
+            if (!v.trim().isEmpty())
+                values.add(lower(v.trim()));
+        }
+        return values;
+    }
+
+    private static String lower(String value)
+    {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    private static String nvl(String arg0, String arg1)
+    {
+        return (arg0 == null) ? arg1 : arg0;
+    }
+}
@@ -0,0 +1,74 @@
+package net.czechit.gcalsync;
+
+import com.google.api.services.calendar.model.Event;
+
+/**
+ * Computes priority of pending event operations - events starting soon are applied first.
+ *
+ * Every operation gets a virtual deadline: time of submission plus part of maxDelay proportional to how far
+ * the event starts (events starting now get no delay, events starting after windowMsec or already finished get
+ * the whole maxDelay). Operations are applied in order of their deadlines, so imminent events overtake the backlog,
+ * but no operation is overtaken by operations submitted more than maxDelay after it (starvation protection).
+ *
+ * Deleted events carry only their id, their start is taken from the snapshot. Deletion with unknown start
+ * (or deletion of the whole recurring series) gets no delay, it may cancel an event starting right now.
+ */
+public class EventPriority
+{
+    /** Events starting within this time (in msec) from now are prioritized */
+    private final long windowMsec;
+
+    /** Maximal delay (in msec) of the operation caused by prioritization, 0 = FIFO order */
+    private final long maxDelayMsec;
+
+    /** Snapshot with start and end of synchronized events, null if not configured */
+    private final CalendarSnapshot snapshot;
+
+    public EventPriority(long windowMsec, long maxDelayMsec, CalendarSnapshot snapshot)
+    {
+        this.windowMsec = windowMsec;
+        this.maxDelayMsec = maxDelayMsec;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Loads priority settings (keys priority.windowHours and priority.maxDelaySec)
+     */
+    public static EventPriority fromSettings(CalendarSettings settings, String prefix, CalendarSnapshot snapshot)
+    {
+        String windowHours = settings.getNonmandatoryProperty(prefix, "priority.windowHours");
+        String maxDelaySec = settings.getNonmandatoryProperty(prefix, "priority.maxDelaySec");
+        return new EventPriority((windowHours.isEmpty() ? 24 : Long.parseLong(windowHours)) * 3600 * 1000,
+                (maxDelaySec.isEmpty() ? 600 : Long.parseLong(maxDelaySec)) * 1000, snapshot);
+    }
+
+    /**
+     * Returns virtual deadline of the operation, lower value = applied sooner
+     * @param event source event
+     * @param submittedAt time of submission (in msec)
+     */
+    public long deadline(Event event, long submittedAt)
+    {
+        if (maxDelayMsec <= 0 || windowMsec <= 0)
+            return submittedAt;
+
+        Long start = SyncHorizon.toMillis(event.getStart());
+        Long end = SyncHorizon.toMillis(event.getEnd());
+        if (start == null) // deleted events carry only original start of the instance, if any
+            start = end = SyncHorizon.toMillis(event.getOriginalStartTime());
+        if (start == null && "cancelled".equals(event.getStatus()))
+        {
+            CalendarSnapshot.Entry entry = (snapshot != null) ? snapshot.get(event.getId()) : null;
+            if (entry == null || entry.start == 0 || !entry.recurrence.isEmpty())
+                return submittedAt;
+            start = entry.start;
+            end = entry.end;
+        }
+
+        double distance = 1.0;
+        if (start != null && (end == null || end >= submittedAt))
+            distance = Math.min(1.0, Math.max(0, start - submittedAt) / (double) windowMsec);
+
+        return submittedAt + (long) (distance * maxDelayMsec);
+    }
+}
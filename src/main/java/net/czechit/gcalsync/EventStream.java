@@ -0,0 +1,107 @@
+package net.czechit.gcalsync;
+
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonParser;
+import com.google.api.client.json.JsonToken;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.Events;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Streaming parser of the events list response (events.list, events.instances). Events are parsed one by one
+ * from the response and handed over to the visitor, so the whole page never needs to be held in memory.
+ */
+public class EventStream
+{
+    /** Receives events as they are parsed from the response */
+    public interface EventVisitor
+    {
+        /**
+         * @param event parsed event
+         * @return false to stop parsing of the response
+         */
+        boolean visit(Event event) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Parses the response and passes all events to the visitor.
+     * @param response response of the events list request
+     * @param jsonFactory JSON factory used for parsing
+     * @param visitor visitor receiving events
+     * @return page information (nextPageToken and nextSyncToken) without items, tokens are not filled in
+     * if parsing was stopped by the visitor
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static Events parse(HttpResponse response, JsonFactory jsonFactory, EventVisitor visitor)
+            throws IOException, InterruptedException
+    {
+        try
+        {
+            return parse(response.getContent(), response.getContentCharset(), jsonFactory, visitor);
+        }
+        finally
+        {
+            response.disconnect();
+        }
+    }
+
+    /**
+     * Parses the response content and passes all events to the visitor, the content is closed afterwards.
+     * @param content content of the events list response
+     * @param charset charset of the content
+     * @param jsonFactory JSON factory used for parsing
+     * @param visitor visitor receiving events
+     * @return page information, see {@link #parse(HttpResponse, JsonFactory, EventVisitor)}
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static Events parse(InputStream content, Charset charset, JsonFactory jsonFactory, EventVisitor visitor)
+            throws IOException, InterruptedException
+    {
+        Events page = new Events();
+        page.setItems(new ArrayList<Event>());
+
+        JsonParser parser = jsonFactory.createJsonParser(content, charset);
+        try
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new IOException("Unexpected content of events list response");
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                if ("items".equals(name) && token == JsonToken.START_ARRAY)
+                {
+                    while (parser.nextToken() == JsonToken.START_OBJECT)
+                    {
+                        // event is released after the visitor processes it
+                        if (!visitor.visit(parser.parse(Event.class)))
+                            return page;
+                    }
+                } else if ("nextPageToken".equals(name))
+                {
+                    page.setNextPageToken(parser.getText());
+                } else if ("nextSyncToken".equals(name))
+                {
+                    page.setNextSyncToken(parser.getText());
+                } else
+                {
+                    parser.skipChildren();
+                }
+            }
+            return page;
+        }
+        finally
+        {
+            parser.close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package net.czechit.gcalsync;
+
+import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates HTTP transport used for all connections to Google API according to global settings (keys http.*).
+ * One transport is shared by all accounts and jobs, so the connections are reused.
+ *
+ * Supported transports (http.transport):
+ * - net (default) - HttpURLConnection based transport
+ * - apache - Apache HttpClient with connection pool
+ * - jdk - java.net.http.HttpClient with HTTP/2
+ */
+public class HttpTransportFactory
+{
+    private final static Logger logger = LoggerFactory.getLogger(HttpTransportFactory.class);
+
+    private static HttpTransport transport;
+
+    public static synchronized HttpTransport getTransport(CalendarSettings settings) throws Exception
+    {
+        if (transport != null)
+            return transport;
+
+        String type = settings.getNonmandatoryGlobalProperty("http.transport");
+        int connectTimeoutMsec = getTimeoutMsec(settings, "http.connectTimeoutSec");
+
+        if (type.isEmpty() || type.equalsIgnoreCase("net"))
+        {
+            transport = GoogleNetHttpTransport.newTrustedTransport();
+        } else if (type.equalsIgnoreCase("apache"))
+        {
+            transport = newApacheTransport(settings, connectTimeoutMsec);
+        } else if (type.equalsIgnoreCase("jdk"))
+        {
+            transport = new JdkHttpTransport(connectTimeoutMsec);
+        } else
+        {
+            throw new Exception(String.format("Unknown http.transport %s, supported values are net, apache and jdk", type));
+        }
+
+        logger.debug(String.format("Using HTTP transport %s", transport.getClass().getSimpleName()));
+        return transport;
+    }
+
+    private static HttpTransport newApacheTransport(CalendarSettings settings, int connectTimeoutMsec) throws Exception
+    {
+        ApacheHttpTransport.Builder builder = new ApacheHttpTransport.Builder();
+        HttpParams params = builder.getHttpParams();
+
+        String maxConnections = settings.getNonmandatoryGlobalProperty("http.maxConnections");
+        if (!maxConnections.isEmpty())
+            ConnManagerParams.setMaxTotalConnections(params, Integer.parseInt(maxConnections));
+
+        String maxConnectionsPerRoute = settings.getNonmandatoryGlobalProperty("http.maxConnectionsPerRoute");
+        if (!maxConnectionsPerRoute.isEmpty())
+            ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(Integer.parseInt(maxConnectionsPerRoute)));
+
+        if (connectTimeoutMsec > 0)
+            HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMsec);
+
+        ApacheHttpTransport apacheTransport = builder.build();
+
+        final long keepAliveMsec = getTimeoutMsec(settings, "http.keepAliveSec");
+        if (keepAliveMsec > 0)
+            ((DefaultHttpClient) apacheTransport.getHttpClient()).setKeepAliveStrategy((response, context) -> keepAliveMsec);
+
+        return apacheTransport;
+    }
+
+    /**
+     * Returns timeout configured in seconds as msec, 0 if not configured
+     */
+    static int getTimeoutMsec(CalendarSettings settings, String key) throws Exception
+    {
+        String value = settings.getNonmandatoryGlobalProperty(key);
+        return value.isEmpty() ? 0 : Integer.parseInt(value) * 1000;
+    }
+}
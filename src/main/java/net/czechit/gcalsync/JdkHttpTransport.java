@@ -0,0 +1,200 @@
+package net.czechit.gcalsync;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HTTP transport based on java.net.http.HttpClient with HTTP/2 support, so concurrent requests to the API
+ * are multiplexed over a small number of connections.
+ */
+public class JdkHttpTransport extends HttpTransport
+{
+    /** Headers which are set by HttpClient itself and cannot be set on the request */
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<String>(
+            Arrays.asList("connection", "content-length", "expect", "host", "upgrade"));
+
+    private final HttpClient client;
+
+    public JdkHttpTransport(int connectTimeoutMsec)
+    {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER);
+        if (connectTimeoutMsec > 0)
+            builder.connectTimeout(Duration.ofMillis(connectTimeoutMsec));
+        client = builder.build();
+    }
+
+    @Override
+    public boolean supportsMethod(String method)
+    {
+        return true;
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url)
+    {
+        return new Request(method, url);
+    }
+
+    private class Request extends LowLevelHttpRequest
+    {
+        private final String method;
+        private final String url;
+        private final List<String[]> headers = new ArrayList<String[]>();
+        private int readTimeoutMsec;
+
+        Request(String method, String url)
+        {
+            this.method = method;
+            this.url = url;
+        }
+
+        @Override
+        public void addHeader(String name, String value)
+        {
+            headers.add(new String[]{name, value});
+        }
+
+        @Override
+        public void setTimeout(int connectTimeout, int readTimeout)
+        {
+            this.readTimeoutMsec = readTimeout;
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException
+        {
+            HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.noBody();
+            if (getStreamingContent() != null)
+            {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                getStreamingContent().writeTo(out);
+                body = HttpRequest.BodyPublishers.ofByteArray(out.toByteArray());
+            }
+
+            HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).method(method, body);
+            if (readTimeoutMsec > 0)
+                builder.timeout(Duration.ofMillis(readTimeoutMsec));
+            for (String[] header : headers)
+            {
+                if (!RESTRICTED_HEADERS.contains(header[0].toLowerCase()))
+                    builder.header(header[0], header[1]);
+            }
+            if (getContentType() != null)
+                builder.header("Content-Type", getContentType());
+            if (getContentEncoding() != null)
+                builder.header("Content-Encoding", getContentEncoding());
+
+            try
+            {
+                return new Response(client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream()));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted during request " + method + " " + url);
+            }
+        }
+    }
+
+    private static class Response extends LowLevelHttpResponse
+    {
+        private final HttpResponse<InputStream> response;
+        private final List<String[]> headers = new ArrayList<String[]>();
+
+        Response(HttpResponse<InputStream> response)
+        {
+            this.response = response;
+            for (Map.Entry<String, List<String>> header : response.headers().map().entrySet())
+            {
+                for (String value : header.getValue())
+                    headers.add(new String[]{header.getKey(), value});
+            }
+        }
+
+        @Override
+        public InputStream getContent()
+        {
+            return response.body();
+        }
+
+        @Override
+        public String getContentEncoding()
+        {
+            return response.headers().firstValue("Content-Encoding").orElse(null);
+        }
+
+        @Override
+        public long getContentLength()
+        {
+            return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        }
+
+        @Override
+        public String getContentType()
+        {
+            return response.headers().firstValue("Content-Type").orElse(null);
+        }
+
+        @Override
+        public String getStatusLine()
+        {
+            String version = (response.version() == HttpClient.Version.HTTP_2) ? "HTTP/2" : "HTTP/1.1";
+            return version + " " + response.statusCode();
+        }
+
+        @Override
+        public int getStatusCode()
+        {
+            return response.statusCode();
+        }
+
+        @Override
+        public String getReasonPhrase()
+        {
+            return null;
+        }
+
+        @Override
+        public int getHeaderCount()
+        {
+            return headers.size();
+        }
+
+        @Override
+        public String getHeaderName(int index)
+        {
+            return headers.get(index)[0];
+        }
+
+        @Override
+        public String getHeaderValue(int index)
+        {
+            return headers.get(index)[1];
+        }
+
+        @Override
+        public void disconnect() throws IOException
+        {
+            response.body().close();
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package net.czechit.gcalsync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File based lease of one synchronization job, used when more instances of the application share one lease directory.
+ * Lease is a file named by the job (like sync.1.lease) containing ID of the owner. The owner refreshes modification
+ * time of the file (heartbeat) while the job is running. Lease is kept after the job finishes, so the same owner
+ * runs the job again next time; lease not refreshed for longer than TTL is expired and taken over by another instance.
+ * Number of leases held by one instance is balanced by LeaseCoordinator.
+ *
+ * If the heartbeat finds the lease owned by another instance, the listener registered by onLost() is notified,
+ * so the running job can be aborted.
+ */
+public class JobLease
+{
+    private final static Logger logger = LoggerFactory.getLogger(JobLease.class);
+
+    private final Path file;
+    private final String ownerId;
+    private final ScheduledExecutorService heartbeat;
+
+    /** Notified when the lease is taken over by another instance */
+    private volatile Runnable lostListener;
+
+    private volatile boolean lost;
+
+    private JobLease(Path file, String ownerId, long ttlMsec)
+    {
+        this.file = file;
+        this.ownerId = ownerId;
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lease-heartbeat-" + file.getFileName());
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, ttlMsec / 3);
+        heartbeat.scheduleAtFixedRate(this::refresh, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tries to acquire lease of the job
+     * @param dir shared lease directory
+     * @param job job prefix, like sync.1
+     * @param ownerId ID of this instance
+     * @param ttlMsec time after which lease not refreshed by its owner expires
+     * @return acquired lease or null if the job is owned by another instance
+     * @throws IOException
+     */
+    public static JobLease tryAcquire(Path dir, String job, String ownerId, long ttlMsec) throws IOException
+    {
+        Path file = dir.resolve(job + ".lease");
+
+        for (int attempt = 0; attempt < 2; attempt++)
+        {
+            try
+            {
+                Files.write(Files.createFile(file), ownerId.getBytes(StandardCharsets.UTF_8));
+                logger.info(String.format("Lease of %s acquired by %s", job, ownerId));
+                return new JobLease(file, ownerId, ttlMsec);
+            }
+            catch (FileAlreadyExistsException e)
+            {
+                // lease exists, check it below
+            }
+
+            String owner;
+            long age;
+            try
+            {
+                owner = readOwner(file);
+                age = System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis();
+            }
+            catch (NoSuchFileException e)
+            {
+                continue; // lease was just released or broken by another instance
+            }
+
+            if (owner.equals(ownerId))
+            {
+                if (renew(file, ownerId))
+                {
+                    logger.debug(String.format("Lease of %s renewed by %s", job, ownerId));
+                    return new JobLease(file, ownerId, ttlMsec);
+                }
+                continue; // lease was broken and possibly acquired by another instance meanwhile, check it again
+            }
+
+            if (age <= ttlMsec)
+            {
+                logger.info(String.format("Job %s is owned by %s, skipping", job, owner));
+                return null;
+            }
+
+            logger.warn(String.format("Lease of %s owned by %s expired %d sec ago, taking over", job, owner, (age - ttlMsec) / 1000));
+            if (!breakExpired(file, ttlMsec))
+                return null;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the lease of the job exists, is owned by the instance and is not expired
+     */
+    public static boolean isOwnedBy(Path dir, String job, String ownerId, long ttlMsec) throws IOException
+    {
+        Path file = dir.resolve(job + ".lease");
+        try
+        {
+            return readOwner(file).equals(ownerId)
+                    && System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() <= ttlMsec;
+        }
+        catch (NoSuchFileException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Releases lease of the job owned by the instance, so another instance can take the job over in its next run.
+     * The lease is first atomically renamed and deleted only if it is still owned by the instance.
+     */
+    public static void release(Path dir, String job, String ownerId) throws IOException
+    {
+        Path file = dir.resolve(job + ".lease");
+        Path released = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".released");
+        try
+        {
+            Files.move(file, released, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (NoSuchFileException e)
+        {
+            return;
+        }
+
+        if (readOwner(released).equals(ownerId))
+        {
+            Files.delete(released);
+            logger.info(String.format("Lease of %s released by %s", job, ownerId));
+        } else
+        {
+            putBack(released, file);
+        }
+    }
+
+    /**
+     * Removes leftovers of leases which could not be put back (see putBack) older than TTL
+     */
+    public static void cleanup(Path dir, long ttlMsec) throws IOException
+    {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.{expired,released}"))
+        {
+            for (Path file : files)
+            {
+                if (System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() > ttlMsec)
+                    Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Removes expired lease. The lease is first atomically renamed, so only one instance can break it,
+     * and if it was refreshed in the meantime it is returned back.
+     * @return true if the lease was removed
+     */
+    private static boolean breakExpired(Path file, long ttlMsec) throws IOException
+    {
+        Path broken = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".expired");
+        try
+        {
+            Files.move(file, broken, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (NoSuchFileException e)
+        {
+            return false; // somebody else is taking over
+        }
+
+        long age = System.currentTimeMillis() - Files.getLastModifiedTime(broken).toMillis();
+        if (age <= ttlMsec)
+        {
+            // renamed lease is not the expired one, it was acquired by another instance in the meantime
+            putBack(broken, file);
+            return false;
+        }
+
+        Files.delete(broken);
+        return true;
+    }
+
+    /**
+     * Returns live lease renamed by mistake back. If a new lease was created in the meantime, the renamed one is
+     * left in place (never deleted) - its owner finds the new lease on the next heartbeat and aborts the job,
+     * the leftover is removed by cleanup().
+     */
+    private static void putBack(Path renamed, Path file) throws IOException
+    {
+        try
+        {
+            Files.move(renamed, file);
+        }
+        catch (FileAlreadyExistsException e)
+        {
+            logger.warn(String.format("Lease %s was acquired by another instance meanwhile, leaving %s", file, renamed));
+        }
+    }
+
+    /**
+     * Refreshes modification time of the lease owned by the instance. The owner is read again after the refresh,
+     * because expired lease could be broken and acquired by another instance between reading and refreshing -
+     * the refresh then landed on the lease of the other instance, which stays its owner. Once refreshed,
+     * the lease cannot be broken, so the second check is final.
+     * @return true if the lease is still owned by the instance
+     */
+    private static boolean renew(Path file, String ownerId) throws IOException
+    {
+        try
+        {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return readOwner(file).equals(ownerId);
+        }
+        catch (NoSuchFileException e)
+        {
+            return false;
+        }
+    }
+
+    private static String readOwner(Path file) throws IOException
+    {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Heartbeat - refreshes modification time of the lease if it is still owned by this instance
+     */
+    private void refresh()
+    {
+        try
+        {
+            if (!readOwner(file).equals(ownerId) || !renew(file, ownerId))
+                markLost();
+        }
+        catch (NoSuchFileException e)
+        {
+            markLost();
+        }
+        catch (IOException e)
+        {
+            logger.error(String.format("Unable to refresh lease %s", file), e);
+        }
+    }
+
+    private void markLost()
+    {
+        if (lost)
+            return;
+        lost = true;
+        logger.error(String.format("Lease %s was taken over by another instance", file));
+        heartbeat.shutdown();
+        Runnable listener = lostListener;
+        if (listener != null)
+            listener.run();
+    }
+
+    /**
+     * Registers listener notified (from the heartbeat thread) when the lease is taken over by another instance.
+     * The job has to be aborted then, because the new owner runs it as well.
+     */
+    public void onLost(Runnable listener)
+    {
+        lostListener = listener;
+        if (lost)
+            listener.run();
+    }
+
+    /**
+     * Returns true if the lease was taken over by another instance
+     */
+    public boolean isLost()
+    {
+        return lost;
+    }
+
+    /**
+     * Stops heartbeat. The lease file is kept (refreshed for the last time), so this instance remains owner of the job
+     * until the lease expires.
+     */
+    public void close()
+    {
+        heartbeat.shutdownNow();
+        if (!lost)
+            refresh();
+    }
+}
@@ -0,0 +1,84 @@
+package net.czechit.gcalsync;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simulates one instance of the application sharing jobs through leases, without any calendar access.
+ * Every round it balances and acquires leases exactly as Main does and "runs" each acquired job by sleeping.
+ * Start and end of every job run is appended to journal.log in the lease directory, so runs of several processes
+ * can be checked for overlapping owners and spreading of jobs (see release/lease_check.sh).
+ *
+ * Usage: java -cp gcalsync.jar net.czechit.gcalsync.LeaseCheck leaseDir jobs ownerId ttlSec workMsec rounds pauseMsec
+ */
+public class LeaseCheck
+{
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length != 7)
+        {
+            System.err.println("Usage: LeaseCheck <leaseDir> <jobs> <ownerId> <ttlSec> <workMsec> <rounds> <pauseMsec>");
+            System.exit(1);
+        }
+
+        Path dir = Paths.get(args[0]);
+        int jobCount = Integer.parseInt(args[1]);
+        String ownerId = args[2];
+        long ttlMsec = Long.parseLong(args[3]) * 1000;
+        long workMsec = Long.parseLong(args[4]);
+        int rounds = Integer.parseInt(args[5]);
+        long pauseMsec = Long.parseLong(args[6]);
+
+        Files.createDirectories(dir);
+        Path journal = dir.resolve("journal.log");
+
+        List<String> jobs = new ArrayList<String>();
+        for (int i = 1; i <= jobCount; i++)
+            jobs.add(String.format("sync.%d", i));
+
+        for (int round = 1; round <= rounds; round++)
+        {
+            LeaseCoordinator coordinator = new LeaseCoordinator(dir, ownerId, ttlMsec);
+            try
+            {
+                coordinator.balance(jobs);
+                for (String job : jobs)
+                {
+                    JobLease lease = coordinator.acquire(job);
+                    if (lease == null)
+                        continue;
+
+                    final Thread worker = Thread.currentThread();
+                    lease.onLost(worker::interrupt);
+                    append(journal, String.format("START %s %s %d %d", job, ownerId, round, System.currentTimeMillis()));
+                    try
+                    {
+                        Thread.sleep(workMsec);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // lease lost, job aborted
+                    }
+                    append(journal, String.format("END %s %s %d %d%s", job, ownerId, round, System.currentTimeMillis(),
+                            lease.isLost() ? " LOST" : ""));
+                    lease.close();
+                }
+            }
+            finally
+            {
+                coordinator.close();
+            }
+            Thread.sleep(pauseMsec);
+        }
+    }
+
+    private static synchronized void append(Path journal, String line) throws Exception
+    {
+        Files.write(journal, (line + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,161 @@
+package net.czechit.gcalsync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads jobs across the instances sharing one lease directory. Every instance keeps its liveness file
+ * (instances/OWNER.alive) refreshed while it runs; the file is kept after the run, so the instance is counted
+ * as live until it is not refreshed for longer than TTL. Each instance holds at most its fair share of jobs,
+ * ceil(jobs / live instances) - leases over the share are released at the start of the run and taken over by
+ * other instances in their next run.
+ */
+public class LeaseCoordinator
+{
+    private final static Logger logger = LoggerFactory.getLogger(LeaseCoordinator.class);
+
+    private final Path dir;
+    private final String ownerId;
+    private final long ttlMsec;
+    private final Path aliveFile;
+    private final ScheduledExecutorService heartbeat;
+
+    /** Maximal number of jobs held by this instance */
+    private int share;
+
+    /** Number of jobs held by this instance */
+    private int owned;
+
+    /**
+     * @param dir shared lease directory
+     * @param ownerId ID of this instance
+     * @param ttlMsec time after which lease (or liveness file) not refreshed by its owner expires
+     */
+    public LeaseCoordinator(Path dir, String ownerId, long ttlMsec) throws IOException
+    {
+        this.dir = dir;
+        this.ownerId = ownerId;
+        this.ttlMsec = ttlMsec;
+        this.aliveFile = dir.resolve("instances").resolve(encode(ownerId) + ".alive");
+
+        Files.createDirectories(aliveFile.getParent());
+        touch();
+        JobLease.cleanup(dir, ttlMsec);
+
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "instance-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, ttlMsec / 3);
+        heartbeat.scheduleAtFixedRate(this::refresh, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Computes the fair share of this instance and releases leases over it. Leases of the jobs at the end
+     * of the list are released first.
+     * @param jobs all jobs (like sync.1, sync.2)
+     */
+    public void balance(List<String> jobs) throws IOException
+    {
+        int live = countLiveInstances();
+        share = (jobs.size() + live - 1) / live;
+
+        List<String> ownedJobs = new ArrayList<String>();
+        for (String job : jobs)
+        {
+            if (JobLease.isOwnedBy(dir, job, ownerId, ttlMsec))
+                ownedJobs.add(job);
+        }
+        while (ownedJobs.size() > share)
+            JobLease.release(dir, ownedJobs.remove(ownedJobs.size() - 1), ownerId);
+        owned = ownedJobs.size();
+
+        logger.info(String.format("%d live instances, %s holds %d of %d jobs, fair share %d",
+                live, ownerId, owned, jobs.size(), share));
+    }
+
+    /**
+     * Acquires lease of the job if it is already owned by this instance or if this instance has not reached
+     * its fair share yet
+     * @return acquired lease or null if the job is run by another instance
+     */
+    public JobLease acquire(String job) throws IOException
+    {
+        boolean renew = JobLease.isOwnedBy(dir, job, ownerId, ttlMsec);
+        if (!renew && owned >= share)
+        {
+            logger.info(String.format("Job %s skipped, %s already holds its fair share of %d jobs", job, ownerId, share));
+            return null;
+        }
+
+        JobLease lease = JobLease.tryAcquire(dir, job, ownerId, ttlMsec);
+        if (lease != null && !renew)
+            owned++;
+        return lease;
+    }
+
+    /**
+     * Stops heartbeat. The liveness file is kept, so the instance keeps its share until the next run.
+     */
+    public void close()
+    {
+        heartbeat.shutdownNow();
+        refresh();
+    }
+
+    private int countLiveInstances() throws IOException
+    {
+        int live = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(aliveFile.getParent(), "*.alive"))
+        {
+            for (Path file : files)
+            {
+                if (System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() <= ttlMsec)
+                    live++;
+            }
+        }
+        return Math.max(1, live);
+    }
+
+    private void refresh()
+    {
+        try
+        {
+            touch();
+        }
+        catch (IOException e)
+        {
+            logger.error(String.format("Unable to refresh liveness file %s", aliveFile), e);
+        }
+    }
+
+    private void touch() throws IOException
+    {
+        if (Files.exists(aliveFile))
+            Files.setLastModifiedTime(aliveFile, FileTime.fromMillis(System.currentTimeMillis()));
+        else
+            Files.write(aliveFile, ownerId.getBytes("UTF-8"));
+    }
+
+    /**
+     * Returns owner ID usable as file name (owner ID contains host name and path by default)
+     */
+    private static String encode(String ownerId) throws UnsupportedEncodingException
+    {
+        return URLEncoder.encode(ownerId, "UTF-8");
+    }
+}
@@ -7,6 +7,11 @@ import com.google.api.client.auth.oauth2.Credential;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.logging.Level;
@@ -23,6 +28,15 @@ public class Main
 
     private CalendarSettings calendarSettings;
 
+    /** Optional - shared directory with job leases, used when more instances of application run the same jobs */
+    private Path leaseDir;
+
+    /** Optional - time (in msec) after which lease of the job not refreshed by its owner expires */
+    private long leaseTtlMsec = 15 * 60 * 1000;
+
+    /** Optional - ID of this instance in leases, default is host name and working directory */
+    private String leaseOwnerId;
+
     public static void main( String[] args ) throws JoranException {
         configureLogback();
         mainRoutine();
@@ -53,28 +67,67 @@ public class Main
         }
     }
 
-    public Main() throws IOException
+    public Main() throws Exception
     {
         calendarSettings = new CalendarSettings();
+
+        String leaseDirStr = calendarSettings.getNonmandatoryGlobalProperty("lease.dir");
+        if (!leaseDirStr.isEmpty())
+        {
+            leaseDir = Paths.get(leaseDirStr);
+            String ttlStr = calendarSettings.getNonmandatoryGlobalProperty("lease.ttlSec");
+            if (!ttlStr.isEmpty())
+                leaseTtlMsec = Long.parseLong(ttlStr) * 1000;
+            leaseOwnerId = calendarSettings.getNonmandatoryGlobalProperty("lease.ownerId");
+            if (leaseOwnerId.isEmpty())
+                leaseOwnerId = InetAddress.getLocalHost().getHostName() + ":" + Paths.get("").toAbsolutePath();
+        }
     }
 
-    public void runAllSync()
+    public void runAllSync() throws IOException
     {
+        List<String> jobs = new ArrayList<String>();
         int i = 1;
         while (calendarSettings.propertyExists(String.format("sync.%d", i), "source"))
         {
-            String prefix = String.format("sync.%d", i);
-            runSync(prefix);
+            jobs.add(String.format("sync.%d", i));
             i++;
         }
+
+        LeaseCoordinator coordinator = null;
+        if (leaseDir != null)
+        {
+            coordinator = new LeaseCoordinator(leaseDir, leaseOwnerId, leaseTtlMsec);
+            coordinator.balance(jobs);
+        }
+        try
+        {
+            for (String prefix : jobs)
+                runSync(prefix, coordinator);
+        }
+        finally
+        {
+            if (coordinator != null)
+                coordinator.close();
+        }
     }
 
-    private void runSync(String prefix)
+    private void runSync(String prefix, LeaseCoordinator coordinator)
     {
             OneWaySync sync = null;
+            JobLease lease = null;
             try
             {
+                if (coordinator != null)
+                {
+                    lease = coordinator.acquire(prefix);
+                    if (lease == null)
+                        return; // job is run by another instance
+                }
+
                 sync = new OneWaySync(calendarSettings, prefix);
+                if (lease != null)
+                    lease.onLost(sync::abort);
                 sync.sync();
             }
             catch (Throwable e)
@@ -85,6 +138,8 @@ public class Main
             {
                 if (sync != null)
                     sync.close();
+                if (lease != null)
+                    lease.close();
             }
     }
 }
@@ -1,21 +1,38 @@
 package net.czechit.gcalsync;
 
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.util.Data;
 import com.google.api.client.util.DateTime;
 import com.google.api.services.calendar.Calendar;
 import com.google.api.services.calendar.model.Event;
 import com.google.api.services.calendar.model.EventAttendee;
 import com.google.api.services.calendar.model.Events;
 import net.czechit.gcalsync.exceptions.RecurringEventNotFoundException;
+import net.czechit.gcalsync.exceptions.SyncAbortedException;
+import net.czechit.gcalsync.jfr.Span;
+import net.czechit.gcalsync.jfr.Tracing;
 import org.apache.commons.codec.binary.Base32;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.math.BigInteger;
 import java.security.MessageDigest;
+import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,6 +40,25 @@ public class OneWaySync
 {
     public enum Operation {UNKNOWN, INSERT, DELETE, UPDATE};
 
+    /** Event fields filled in by syncEvent mapping, which are compared with destination event and sent in PATCH request */
+    private static final String[] PATCHED_FIELDS = {"summary", "description", "location", "start", "end", "reminders",
+            "status", "recurrence", "colorId", "extendedProperties"};
+
+    /** Private extended property marking events created by synchronization, value identifies the source calendar */
+    public static final String SOURCE_PROPERTY = "gcalsyncSource";
+
+    /** Overlap (in msec) of loading changes since the snapshot, covers difference of local and server clock */
+    private static final long SNAPSHOT_OVERLAP_MSEC = 5 * 60 * 1000;
+
+    /** Default maximal number of events submitted to the applier and not yet applied */
+    private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    /** Number of delete requests sent in one batch */
+    private static final int DELETE_BATCH_SIZE = 50;
+
+    /** Page size of listing events during reconciliation */
+    private static final int RECONCILE_PAGE_SIZE = 2500;
+
     private final static Logger logger = LoggerFactory.getLogger(OneWaySync.class);
 
     private CalendarSettings settings;
@@ -42,6 +78,9 @@ public class OneWaySync
     /** ID of the destination calendar */
     private String destinationCalendarName;
 
+    /** Value of SOURCE_PROPERTY for events synchronized by this job, like: 1:primary */
+    private String sourceMarker;
+
     /** Color of the event in destination calendar */
     private String destinationEventColor;
 
@@ -51,6 +90,18 @@ public class OneWaySync
     /** Optional - sleepTime (in msec) used between events syncing */
     private int sleepTimeMsec = 1000;
 
+    /** Optional - number of events being synchronized at the same time, events of one series are always synchronized in order */
+    private int concurrency = 1;
+
+    /** Optional - number of pages of changes loaded from source calendar, which are coalesced together before syncing */
+    private int coalesceWindowPages = 1;
+
+    /** Page size of loading changes from source calendar (fixed or adaptive) */
+    private PageSizer pageSizer;
+
+    /** Optional - events are parsed one by one from responses and synchronized immediately, keeps memory usage flat */
+    private boolean streaming;
+
     /** Optional - maximum events to be synchronized, for debuging purposes */
     private int maximumEvents;
 
@@ -60,8 +111,32 @@ public class OneWaySync
     /** Optional - appendix what is added to event description */
     private String descriptionAppendix;
 
-    /** Optional - if this text appears in description of the source event, then the event is not synchronized */
-    private String skipSynchroDescriptionPattern;
+    /** Filter of source events which are not synchronized (including description.skipSynchroPattern) */
+    private EventFilter filter;
+
+    /** Optional - time window of synchronized events, destination events leaving it are pruned */
+    private SyncHorizon horizon;
+
+    /** Optional - local snapshot of the synchronized events, used to skip unchanged events and for fast resync */
+    private CalendarSnapshot snapshot;
+
+    /** Optional - maximal age of the snapshot (in msec) to be used for resync without sync token */
+    private long snapshotMaxAgeMsec = 20L * 24 * 3600 * 1000;
+
+    /** Optional - how often (in msec) the destination calendar is reconciled with the source calendar, 0 = never */
+    private long reconcileIntervalMsec;
+
+    /** Queue of events whose synchronization failed, retried in next runs */
+    private RetryQueue retryQueue;
+
+    /** Number of previous attempts of events taken from the retry queue and being applied now, by event id */
+    private final Map<String, Integer> retryAttempts = new ConcurrentHashMap<String, Integer>();
+
+    /** Set when the job has to be stopped (lease taken over by another instance), nothing is written afterwards */
+    private volatile boolean aborted;
+
+    /** Statistics of the current run */
+    private SyncStats stats;
 
     /** Runtime settings for the source calendar */
     private RuntimeSettings sourceRuntimeSettings;
@@ -69,6 +144,9 @@ public class OneWaySync
     private CalendarConnection source;
     private CalendarConnection destination;
 
+    /** Applies events to destination calendar (concurrently if configured) */
+    private EventApplier applier;
+
     com.google.api.services.calendar.Calendar sourceCalendar;
     com.google.api.services.calendar.Calendar destinationCalendar;
 
@@ -87,18 +165,41 @@ public class OneWaySync
         destinationPrefix = String.format("account.%s", settings.getProperty(prefix, "destination"));
 
         source = new CalendarConnection(settings, sourcePrefix);
-        source.logInfoAboutAccount();
         sourceCalendar = source.getService();
 
         destination = new CalendarConnection(settings, destinationPrefix);
-        destination.logInfoAboutAccount();
         destinationCalendar = destination.getService();
 
         sourceCalendarName = settings.getProperty(prefix, "source.calendar");
         destinationCalendarName = settings.getProperty(prefix, "destination.calendar");
+        sourceMarker = settings.getProperty(prefix, "source") + ":" + sourceCalendarName;
+        horizon = SyncHorizon.fromSettings(settings, prefix);
 
         destinationEventColor = settings.getNonmandatoryProperty(prefix, "destination.color");
-        sourceRuntimeSettings = new RuntimeSettings(settings.getProperty(prefix, "source.lastSyncTokenFile"));
+        if (!destinationEventColor.equals(""))
+            validateDestinationEventColor();
+        String lastSyncTokenFile = settings.getProperty(prefix, "source.lastSyncTokenFile");
+        sourceRuntimeSettings = new RuntimeSettings(lastSyncTokenFile);
+
+        String snapshotFile = settings.getNonmandatoryProperty(prefix, "snapshot.file");
+        if (!snapshotFile.isEmpty())
+        {
+            snapshot = CalendarSnapshot.load(Paths.get(snapshotFile));
+            String snapshotMaxAgeDays = settings.getNonmandatoryProperty(prefix, "snapshot.maxAgeDays");
+            if (!snapshotMaxAgeDays.isEmpty())
+                snapshotMaxAgeMsec = Long.parseLong(snapshotMaxAgeDays) * 24 * 3600 * 1000;
+        }
+
+        String reconcileIntervalDays = settings.getNonmandatoryProperty(prefix, "reconcile.intervalDays");
+        if (!reconcileIntervalDays.isEmpty())
+            reconcileIntervalMsec = (long) (Double.parseDouble(reconcileIntervalDays) * 24 * 3600 * 1000);
+
+        String retryQueueFile = settings.getNonmandatoryProperty(prefix, "retry.queueFile");
+        String retryMaxAttempts = settings.getNonmandatoryProperty(prefix, "retry.maxAttempts");
+        String retryBackoffSec = settings.getNonmandatoryProperty(prefix, "retry.backoffSec");
+        retryQueue = new RetryQueue(retryQueueFile.isEmpty() ? lastSyncTokenFile + ".retry.json" : retryQueueFile,
+                retryMaxAttempts.isEmpty() ? 5 : Integer.parseInt(retryMaxAttempts),
+                (retryBackoffSec.isEmpty() ? 60 : Long.parseLong(retryBackoffSec)) * 1000);
         dryRun = settings.getNonmandatoryProperty(prefix, "dryRun").equalsIgnoreCase("TRUE");
 
         String maxEvents =  settings.getNonmandatoryProperty(prefix, "maximumEvents");
@@ -111,15 +212,120 @@ public class OneWaySync
         if (!summaryAppendix.equals("")) summaryAppendix = " " + summaryAppendix;
         descriptionAppendix = settings.getNonmandatoryProperty(prefix, "description.appendix").replaceAll("\\\\n", "\n");
 
-        skipSynchroDescriptionPattern = settings.getNonmandatoryProperty(prefix, "description.skipSynchroPattern");
+        filter = new EventFilter(settings, prefix);
+
+        streaming = settings.getNonmandatoryProperty(prefix, "streaming").equalsIgnoreCase("TRUE");
+
+        String coalesceWindowStr = settings.getNonmandatoryProperty(prefix, "coalesceWindowPages");
+        if (!coalesceWindowStr.isEmpty())
+            coalesceWindowPages = Integer.parseInt(coalesceWindowStr);
+
+        pageSizer = PageSizer.fromSettings(settings, prefix);
+
+        String concurrencyStr = settings.getNonmandatoryProperty(prefix, "concurrency");
+        if (!concurrencyStr.isEmpty())
+            concurrency = Integer.parseInt(concurrencyStr);
+
+        // In streaming mode only few events are queued to keep memory flat, otherwise the queue is large enough
+        // for events starting soon to overtake the backlog
+        String queueSizeStr = settings.getNonmandatoryProperty(prefix, "queueSize");
+        int queueSize = !queueSizeStr.isEmpty() ? Integer.parseInt(queueSizeStr) : (streaming ? concurrency * 4 : DEFAULT_QUEUE_SIZE);
+
+        // Rate limit is shared by all jobs writing to the same destination account
+        applier = new EventApplier(prefix, this::applyChange, concurrency, queueSize,
+                RateLimiter.forAccount(destinationPrefix, sleepTimeMsec), EventPriority.fromSettings(settings, prefix, snapshot));
+    }
+
+    /**
+     * Loads one page of changes from source calendar, records its latency and size to the statistics and page sizer.
+     * In streaming mode the changes are submitted during parsing and the returned page has no items, time spent
+     * by submitting them is not counted to the latency.
+     */
+    private Events fetchPage(Calendar.Events.List request) throws IOException, InterruptedException
+    {
+        long started = System.nanoTime();
+        // In streaming mode reading of the body is interleaved with applying of the events, so the span covers
+        // the request until the response headers arrive only
+        Span pageSpan = Tracing.pageFetch(settingsPrefix, null);
+        HttpResponse response = null;
+        try
+        {
+            response = request.executeUnparsed();
+        }
+        finally
+        {
+            if (streaming || response == null)
+                pageSpan.finish(streaming ? "HEADERS" : null);
+        }
+
+        CountingInputStream content = new CountingInputStream(response.getContent());
+        int[] items = new int[1];
+        long[] submitNanos = new long[1];
+        Events page;
+        try
+        {
+            if (streaming)
+            {
+                page = EventStream.parse(content, response.getContentCharset(), sourceCalendar.getJsonFactory(), event -> {
+                    items[0]++;
+                    long submitStarted = System.nanoTime();
+                    try
+                    {
+                        return submitChange(event);
+                    }
+                    finally
+                    {
+                        submitNanos[0] += System.nanoTime() - submitStarted;
+                    }
+                });
+            } else
+            {
+                page = sourceCalendar.getJsonFactory().createJsonParser(content, response.getContentCharset())
+                        .parseAndClose(Events.class);
+                items[0] = page.getItems().size();
+            }
+        }
+        finally
+        {
+            response.disconnect();
+            if (!streaming)
+                pageSpan.finish(null);
+        }
+
+        long latency = (System.nanoTime() - started - submitNanos[0]) / 1000000;
+        stats.recordPage(latency);
+        pageSizer.record(items[0], latency, content.getCount());
+        return page;
+    }
+
+    /**
+     * Checks destinationEventColor against the palette of event colors of the destination account,
+     * unknown color is not used.
+     */
+    private void validateDestinationEventColor()
+    {
+        try
+        {
+            if (!destination.getAccountMetadata().isEventColorValid(destinationEventColor))
+            {
+                logger.warn(String.format("Color %s is not defined in event colors of %s, it will be ignored",
+                        destinationEventColor, destination.getSettingsAccountName()));
+                destinationEventColor = "";
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to load account metadata, destination color is not validated", e);
+        }
     }
 
     /**
      * Main synchronization routine - takes configurations loaded in class constructor, takes lastSyncToken and perform
      * the one way synchronization.
      * @throws IOException
+     * @throws InterruptedException
      */
-    public void sync() throws IOException
+    public void sync() throws IOException, InterruptedException
     {
         String syncToken = sourceRuntimeSettings.getLastSyncToken();
         logger.info(String.format("Starting synchronization events from %s (calendar %s) to %s (calendar %s), lastSyncToken = %s",
@@ -127,24 +333,40 @@ public class OneWaySync
                 destination.getSettingsAccountName(), destinationCalendarName,
                 syncToken));
         Calendar.Events.List request = sourceCalendar.events().list(sourceCalendarName);
-        if (null == syncToken || "".equals(syncToken))
+        // Changes made after this time may be missing in this run, snapshot reflects only changes made before it
+        long listingStarted = System.currentTimeMillis();
+        if ((null == syncToken || "".equals(syncToken)) && isSnapshotUsable())
+        {
+            // Sync token is lost, but the snapshot knows state of the calendars, so only changes since it was written
+            // are loaded (with small overlap), unchanged events are skipped by the snapshot
+            DateTime updatedMin = new DateTime(snapshot.getCreatedAt() - SNAPSHOT_OVERLAP_MSEC);
+            logger.info(String.format("No sync token, loading changes since the snapshot, updatedMin = %s", updatedMin));
+            request.setUpdatedMin(updatedMin).setShowDeleted(true);
+        } else if (null == syncToken || "".equals(syncToken))
         {
             DateTime now = new DateTime(System.currentTimeMillis());
-            request.setTimeMin(now).setMaxResults(1);
+            request.setTimeMin(now);
         } else {
             request.setSyncToken(syncToken);
         }
 
-        int numberOfEvents = 0;
+        stats = new SyncStats();
+        // Changes dropped during this run start after this time, next run backfills events from here
+        long horizonEnd = (horizon != null) ? horizon.getEnd() : 0;
+        drainRetryQueue();
+
         String pageToken = null;
         Events events = null;
+        List<Event> pendingChanges = new ArrayList<Event>();
+        int pagesInWindow = 0;
 
         tokenLoop:
         do {
-            request.setPageToken(pageToken);
+            checkAborted();
+            request.setPageToken(pageToken).setMaxResults(pageSizer.getPageSize());
 
             try {
-                events = request.execute();
+                events = fetchPage(request);
             }
             catch (GoogleJsonResponseException e) {
                 logger.error(String.format("Exception during request execution, request = %s", request.toString()), e);
@@ -154,38 +376,454 @@ public class OneWaySync
                     logger.error("Invalid sync token, restarting again without token", e);
                     sourceRuntimeSettings.setLastSyncToken("");
                     sync();
+                    return;
                 } else {
                     throw e;
                 }
             }
 
-            List<Event> items = events.getItems();
-            if (items.size() > 0)
+            pendingChanges.addAll(events.getItems());
+            pagesInWindow++;
+            pageToken = events.getNextPageToken();
+
+            // Changes are coalesced over the window of pages and submitted to the applier, next window is loaded
+            // without waiting for them, so events starting soon from later pages can overtake the backlog
+            // (in streaming mode the changes were already submitted during parsing, so the list is empty)
+            if (pageToken == null || pagesInWindow >= coalesceWindowPages)
             {
-                for (Event event : items) {
-                    try {
-                        if (maximumEvents == 0 || numberOfEvents < maximumEvents)
-                        {
-                            numberOfEvents++;
-                            syncEvent(event, destinationCalendar);
-                            Thread.sleep(sleepTimeMsec);
-                        }
-                    }
-                    catch (Exception e)
-                    {
-                        logger.error("Problem during syncing " + event.getId() + " - " + event.getSummary(), e);
-                    }
+                for (Event event : ChangeCoalescer.coalesce(pendingChanges)) {
+                    submitChange(event);
                 }
-            }
+                pendingChanges.clear();
+                pagesInWindow = 0;
 
-            pageToken = events.getNextPageToken();
+                drainRetryQueue();
+            }
         } while (pageToken != null);
 
+        // all changes have to be applied before the sync token is saved
+        applier.awaitCompletion();
+        checkAborted();
+        if (horizon != null && horizon.hasEnd())
+            backfillHorizon();
+
+        if (horizon != null && horizon.hasStart())
+            pruneDestination();
+
+        if (reconcileIntervalMsec > 0 && System.currentTimeMillis() - sourceRuntimeSettings.getLastReconcileTime() >= reconcileIntervalMsec)
+        {
+            reconcile();
+            sourceRuntimeSettings.setLastReconcileTime(System.currentTimeMillis());
+        }
+
+        checkAborted();
         syncToken = events.getNextSyncToken(); // be careful, if the loading of events is cancelled in the middle, then the syncToken is null, because if needs to be loaded from the begining
-        logger.info(String.format("Synchronization done, number od events synchronized = %d, next syncToken = %s", numberOfEvents, syncToken));
+        logger.info(String.format("Synchronization done, %s, next syncToken = %s", stats, syncToken));
         sourceRuntimeSettings.setLastSyncToken(syncToken);
+        if (snapshot != null && !dryRun)
+            snapshot.setCreatedAt(listingStarted);
+        if (horizon != null && horizon.hasEnd())
+            sourceRuntimeSettings.setHorizonEnd(horizonEnd);
+    }
+
+    /**
+     * Aborts running synchronization - no more changes are loaded or written and nothing is saved on close,
+     * so the sync token stays unchanged. Can be called from any thread.
+     */
+    public void abort()
+    {
+        aborted = true;
+        logger.error(String.format("Synchronization of %s aborted", settingsPrefix));
+    }
+
+    private void checkAborted() throws SyncAbortedException
+    {
+        if (aborted)
+            throw new SyncAbortedException(String.format("Synchronization of %s was aborted", settingsPrefix));
+    }
+
+    /**
+     * Returns true if the snapshot exists and is recent enough to be used for loading changes without sync token
+     */
+    private boolean isSnapshotUsable()
+    {
+        return snapshot != null && snapshot.getCreatedAt() > 0
+                && System.currentTimeMillis() - snapshot.getCreatedAt() < snapshotMaxAgeMsec;
+    }
+
+    /**
+     * Submits changed source event to the applier unless it is skipped by filter or maximumEvents is reached
+     * @param event changed source event
+     * @return always true, so it can be used as EventStream visitor
+     * @throws InterruptedException
+     */
+    private boolean submitChange(Event event) throws IOException, InterruptedException
+    {
+        checkAborted();
+        retryQueue.remove(event.getId()); // newer change of the event supersedes the failed one
+
+        if (horizon != null && !horizon.contains(event))
+        {
+            stats.incrementOutOfHorizon();
+            if (!"cancelled".equals(event.getStatus()) && !EventApplier.isInstance(event)
+                    && snapshot != null && snapshot.get(event.getId()) != null)
+            {
+                // Event was moved out of the horizon, its copy at the old time is deleted. Instances are left alone,
+                // deleting them would cancel an occurrence of the series which is still synchronized.
+                logger.debug(String.format("Source event %s (id %s) is outside of sync horizon %s, deleting its copy",
+                        event.getSummary(), event.getId(), horizon));
+                Event deletion = event.clone();
+                deletion.setStatus("cancelled");
+                applier.submit(deletion);
+            } else
+            {
+                logger.debug(String.format("Source event %s (id %s) is outside of sync horizon %s, so it will not be synchronized",
+                        event.getSummary(), event.getId(), horizon));
+            }
+        } else if (filter.isSkipped(event))
+        {
+            stats.incrementSkipped();
+        } else if (maximumEvents == 0 || stats.getSynchronized() < maximumEvents)
+        {
+            stats.incrementSynchronized();
+            applier.submit(event);
+        }
+        return true;
+    }
+
+    /**
+     * Synchronizes events which came into the sync horizon since the last run. Their changes were dropped when they
+     * were beyond the horizon and the sync token doesn't return them again, so the range between the previous and
+     * current end of the horizon is listed from source calendar.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void backfillHorizon() throws IOException, InterruptedException
+    {
+        long previousEnd = sourceRuntimeSettings.getHorizonEnd();
+        long end = horizon.getEnd();
+        if (previousEnd <= 0 || end <= previousEnd)
+            return; // first run with horizon, nothing was dropped yet
+
+        logger.info(String.format("Loading events which came into sync horizon, from %s to %s",
+                new DateTime(previousEnd), new DateTime(end)));
+        Calendar.Events.List request = sourceCalendar.events().list(sourceCalendarName)
+                .setTimeMin(new DateTime(previousEnd)).setTimeMax(new DateTime(end)).setShowDeleted(false)
+                .setMaxResults(RECONCILE_PAGE_SIZE);
+        String pageToken = null;
+        do
+        {
+            Events page = request.setPageToken(pageToken).execute();
+            for (Event event : page.getItems())
+                submitChange(event);
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        applier.awaitCompletion();
     }
 
+    /**
+     * Deletes events synchronized by this job from destination calendar which ended before the start of the sync horizon.
+     * Master of the recurring event is deleted only if all its instances ended before the horizon.
+     * Deletes are sent in batches.
+     * @throws IOException
+     */
+    private void pruneDestination() throws IOException
+    {
+        final long horizonStart = horizon.getStart();
+        List<String> toDelete = new ArrayList<String>();
+
+        Calendar.Events.List request = destinationCalendar.events().list(destinationCalendarName)
+                .setPrivateExtendedProperty(Collections.singletonList(SOURCE_PROPERTY + "=" + sourceMarker))
+                .setTimeMax(new DateTime(horizonStart))
+                .setShowDeleted(false);
+        String pageToken = null;
+        do
+        {
+            Events page = request.setPageToken(pageToken).execute();
+            for (Event event : page.getItems())
+            {
+                if (EventApplier.isInstance(event))
+                    continue; // exceptions of recurring events are deleted together with their master
+
+                if (event.getRecurrence() == null || event.getRecurrence().isEmpty())
+                {
+                    Long end = SyncHorizon.toMillis(event.getEnd());
+                    if (end != null && end < horizonStart)
+                        toDelete.add(event.getId());
+                } else if (!hasInstancesAfter(event, horizonStart))
+                {
+                    toDelete.add(event.getId());
+                }
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+
+        logger.info(String.format("Pruning %d events which left sync horizon %s from destination calendar", toDelete.size(), horizon));
+        deleteInBatches(toDelete, stats::incrementPruned);
+    }
+
+    /**
+     * Deletes events from destination calendar using batch requests
+     * @param ids IDs of events in destination calendar
+     * @param onDeleted called for every successfully deleted event
+     * @throws IOException
+     */
+    private void deleteInBatches(List<String> ids, final Runnable onDeleted) throws IOException
+    {
+        if (dryRun || ids.isEmpty())
+            return;
+
+        JsonBatchCallback<Void> callback = new JsonBatchCallback<Void>()
+        {
+            @Override
+            public void onSuccess(Void result, HttpHeaders responseHeaders)
+            {
+                onDeleted.run();
+            }
+
+            @Override
+            public void onFailure(GoogleJsonError e, HttpHeaders responseHeaders)
+            {
+                logger.warn("Unable to delete event from destination calendar: " + e.getMessage());
+            }
+        };
+
+        for (int i = 0; i < ids.size(); i += DELETE_BATCH_SIZE)
+        {
+            checkAborted();
+            BatchRequest batch = destinationCalendar.batch();
+            for (String id : ids.subList(i, Math.min(i + DELETE_BATCH_SIZE, ids.size())))
+            {
+                destinationCalendar.events().delete(destinationCalendarName, id).queue(batch, callback);
+            }
+            batch.execute();
+        }
+    }
+
+    /**
+     * Compares the destination calendar with the source calendar and repairs differences (drift caused by manual
+     * changes, lost sync token or failed writes). Projected content of events on both sides is hashed into monthly
+     * buckets and only events in buckets with different hashes are compared. Differing events are synchronized again,
+     * events synchronized by this job which no longer exist in the source calendar are deleted.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void reconcile() throws IOException, InterruptedException
+    {
+        DateTime timeMin = new DateTime((horizon != null && horizon.hasStart()) ? horizon.getStart() : System.currentTimeMillis());
+        DateTime timeMax = (horizon != null && horizon.hasEnd()) ? new DateTime(horizon.getEnd()) : null;
+        logger.info(String.format("Starting reconciliation of %s and %s from %s", sourceCalendarName, destinationCalendarName, timeMin));
+
+        // Source side - events are projected the same way as they are written to destination calendar
+        Map<String, Event> sourceEvents = new HashMap<String, Event>();
+        Map<String, Event> sourceProjections = new HashMap<String, Event>();
+        BucketHashTree sourceTree = new BucketHashTree();
+        Calendar.Events.List sourceRequest = sourceCalendar.events().list(sourceCalendarName)
+                .setTimeMin(timeMin).setTimeMax(timeMax).setShowDeleted(false).setMaxResults(RECONCILE_PAGE_SIZE);
+        String pageToken = null;
+        do
+        {
+            Events page = sourceRequest.setPageToken(pageToken).execute();
+            for (Event event : page.getItems())
+            {
+                if ((horizon != null && !horizon.contains(event)) || filter.isSkipped(event))
+                    continue;
+
+                Event mappedEvent = new Event();
+                syncEvent(event, mappedEvent, "");
+                String key = EventApplier.isInstance(event) ? event.getId() : fixId(event.getId());
+                Event projection = project(mappedEvent);
+                sourceEvents.put(key, event);
+                sourceProjections.put(key, projection);
+                sourceTree.add(key, nvl(SyncHorizon.toMillis(event.getStart()), 0L), CalendarSnapshot.contentHash(projection));
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+
+        // Destination side - only events synchronized by this job, only fields written by synchronization are loaded
+        Map<String, Event> destinationEvents = new HashMap<String, Event>();
+        BucketHashTree destinationTree = new BucketHashTree();
+        Calendar.Events.List destinationRequest = destinationCalendar.events().list(destinationCalendarName)
+                .setPrivateExtendedProperty(Collections.singletonList(SOURCE_PROPERTY + "=" + sourceMarker))
+                .setTimeMin(timeMin).setTimeMax(timeMax).setShowDeleted(false).setMaxResults(RECONCILE_PAGE_SIZE)
+                .setFields("nextPageToken,items(id,recurringEventId,originalStartTime," + String.join(",", PATCHED_FIELDS) + ")");
+        pageToken = null;
+        do
+        {
+            Events page = destinationRequest.setPageToken(pageToken).execute();
+            for (Event event : page.getItems())
+            {
+                // Instance modified only in destination calendar and already repaired matches its series again,
+                // source doesn't list it (it is not an exception there), so it is left out of the comparison
+                if (EventApplier.isInstance(event) && !sourceEvents.containsKey(event.getId())
+                        && matchesSeries(event, sourceProjections.get(event.getRecurringEventId())))
+                    continue;
+
+                destinationEvents.put(event.getId(), event);
+                destinationTree.add(event.getId(), nvl(SyncHorizon.toMillis(event.getStart()), 0L), CalendarSnapshot.contentHash(project(event)));
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+
+        // Descend only into buckets with different hashes
+        Set<String> differingBuckets = sourceTree.differingBuckets(destinationTree);
+        Set<String> toRepair = new TreeSet<String>();
+        Set<String> orphans = new TreeSet<String>();
+        for (String bucket : differingBuckets)
+        {
+            for (String key : sourceTree.differingKeys(destinationTree, bucket))
+            {
+                if (sourceEvents.containsKey(key))
+                    toRepair.add(key);
+                else
+                    orphans.add(key);
+            }
+        }
+        logger.info(String.format("Reconciliation: %d of %d monthly buckets differ, %d events to repair, %d orphans",
+                differingBuckets.size(), Math.max(sourceTree.getBucketCount(), destinationTree.getBucketCount()),
+                toRepair.size(), orphans.size()));
+
+        for (String key : toRepair)
+        {
+            Event event = sourceEvents.get(key);
+            if (snapshot != null)
+                snapshot.remove(event.getId()); // snapshot doesn't reflect the destination calendar, it must not skip the event
+            stats.incrementRepaired();
+            applier.submit(event);
+        }
+
+        List<String> toDelete = new ArrayList<String>();
+        for (String key : orphans)
+        {
+            if (!EventApplier.isInstance(destinationEvents.get(key)))
+            {
+                toDelete.add(key);
+                continue;
+            }
+
+            // Modified instance in destination calendar without modified instance in source - the source instance
+            // is loaded and synchronized again, deleting it would cancel the occurrence of the recurring event
+            try
+            {
+                Event sourceInstance = sourceCalendar.events().get(sourceCalendarName, key).execute();
+                if (snapshot != null)
+                    snapshot.remove(sourceInstance.getId());
+                stats.incrementRepaired();
+                applier.submit(sourceInstance);
+            }
+            catch (GoogleJsonResponseException e)
+            {
+                if (e.getStatusCode() != 404)
+                    throw e;
+                toDelete.add(key);
+            }
+        }
+        applier.awaitCompletion();
+        deleteInBatches(toDelete, stats::incrementOrphansDeleted);
+    }
+
+    /**
+     * Returns true if the destination instance looks like an unmodified occurrence of the series - it has the same
+     * mapped fields as the source master and it was not moved
+     * @param instance instance in destination calendar
+     * @param masterProjection projection of the mapped source master, null if the master is unknown
+     */
+    private boolean matchesSeries(Event instance, Event masterProjection)
+    {
+        if (masterProjection == null)
+            return false;
+
+        Event projection = project(instance);
+        for (String field : PATCHED_FIELDS)
+        {
+            if (field.equals("start") || field.equals("end") || field.equals("recurrence"))
+                continue;
+            if (!Objects.equals(projection.get(field), masterProjection.get(field)))
+                return false;
+        }
+
+        Long start = SyncHorizon.toMillis(instance.getStart());
+        Long end = SyncHorizon.toMillis(instance.getEnd());
+        Long masterStart = SyncHorizon.toMillis(masterProjection.getStart());
+        Long masterEnd = SyncHorizon.toMillis(masterProjection.getEnd());
+        return start != null && end != null && masterStart != null && masterEnd != null
+                && start.equals(SyncHorizon.toMillis(instance.getOriginalStartTime()))
+                && end - start == masterEnd - masterStart;
+    }
+
+    /**
+     * Returns copy of the event containing only fields written by synchronization (PATCHED_FIELDS)
+     */
+    private Event project(Event event)
+    {
+        Event projected = new Event();
+        for (String field : PATCHED_FIELDS)
+        {
+            if (!isPatchedField(field))
+                continue;
+            Object value = event.get(field);
+            if (value != null)
+                projected.set(field, value);
+        }
+        return projected;
+    }
+
+    /**
+     * Returns true if the recurring event in destination calendar has any instance ending after the given time
+     */
+    private boolean hasInstancesAfter(Event master, long time) throws IOException
+    {
+        Long until = SyncHorizon.recurrenceUntil(master.getRecurrence());
+        if (until != null)
+            return until >= time;
+
+        Events instances = destinationCalendar.events().instances(destinationCalendarName, master.getId())
+                .setTimeMin(new DateTime(time)).setMaxResults(1).execute();
+        return !instances.getItems().isEmpty();
+    }
+
+    /**
+     * Submits events from retry queue which are ready for the next attempt and waits until they are applied
+     * @throws InterruptedException
+     */
+    private void drainRetryQueue() throws InterruptedException
+    {
+        List<RetryQueue.FailedEvent> due = retryQueue.takeDue();
+        if (due.isEmpty())
+            return;
+
+        logger.info(String.format("Retrying %d events from retry queue", due.size()));
+        for (RetryQueue.FailedEvent failedEvent : due)
+        {
+            stats.incrementRetried();
+            retryAttempts.put(failedEvent.getEvent().getId(), RetryQueue.attempts(failedEvent));
+            applier.submit(failedEvent.getEvent());
+        }
+    }
+
+    /**
+     * Synchronizes one event to destination calendar, failed event is put to the retry queue
+     * @param event source event
+     */
+    private void applyChange(Event event)
+    {
+        if (aborted)
+            return; // the new owner of the job synchronizes the event
+        Integer attempts = retryAttempts.remove(event.getId());
+        try
+        {
+            syncEvent(event, destinationCalendar);
+            // Older change of the same event, still queued when this one was submitted, may have failed
+            // after submitChange cleared the retry queue - it must not be replayed over this change
+            retryQueue.remove(event.getId());
+        }
+        catch (Exception e)
+        {
+            logger.error("Problem during syncing " + event.getId() + " - " + event.getSummary(), e);
+            stats.incrementFailed();
+            retryQueue.add(event, (attempts != null) ? attempts : 0, e);
+        }
+    }
 
     /**
      * Sync one event to targetCalendar
@@ -216,14 +854,52 @@ public class OneWaySync
 
         logger.debug(String.format("Following event going to be synced, operation: %s, event: %s", logMessage, event.toPrettyString()));
 
+        // Map the source event first, so events unchanged since the last synchronization (known from the snapshot)
+        // don't need any request to the destination calendar
+        Event mappedEvent = null;
+        long contentHash = 0;
+        if (operation != Operation.DELETE)
+        {
+            Span mapSpan = Tracing.map(settingsPrefix, sourceIdUnfixed);
+            try
+            {
+                mappedEvent = new Event();
+                syncEvent(event, mappedEvent, debugAppendix);
+                contentHash = CalendarSnapshot.contentHash(mappedEvent);
+            }
+            finally
+            {
+                mapSpan.finish(null);
+            }
+
+            if (snapshot != null && snapshot.isUnchanged(sourceIdUnfixed, contentHash))
+            {
+                logger.debug("   -> event is unchanged since the last synchronization (snapshot), so synchronization is skipped");
+                return;
+            }
+        }
+
         // We try to find corresponding event in destination calendar based on event id (event.getId())
-        Event targetEvent = findEvent(event, targetCalendar);
+        Span lookupSpan = Tracing.lookup(settingsPrefix, sourceIdUnfixed);
+        Event targetEvent = null;
+        String lookupResult = "FAILED";
+        try
+        {
+            targetEvent = findEvent(event, targetCalendar);
+            lookupResult = (targetEvent != null) ? "FOUND" : "NOT_FOUND";
+        }
+        finally
+        {
+            lookupSpan.finish(lookupResult);
+        }
 
         if (targetEvent != null) // the event is found in the target calendar
         {
             if (operation == Operation.DELETE && targetEvent.getStatus().equalsIgnoreCase("cancelled"))
             {
                 logger.debug("   -> event is in target calendar marked as cancelled, so synchronization is skipped");
+                if (snapshot != null)
+                    snapshot.remove(sourceIdUnfixed);
                 return;
             }
 
@@ -234,36 +910,70 @@ public class OneWaySync
             if (operation == Operation.DELETE) // We are asked to delete event, but it doesn't exist in destination calendar, so we just ignore the request
             {
                 logger.warn("   -> not found in target calendar and requested to be deleted, so ignoring");
+                if (snapshot != null)
+                    snapshot.remove(sourceIdUnfixed);
                 return;
             }
 
-            targetEvent = new Event();
+            targetEvent = mappedEvent;
             targetEvent.setId(sourceId);
 
             logger.debug("   -> not found, creating new event");
             operation = Operation.INSERT;
         }
 
-        // Load data from event to targetEvent
-        syncEvent(event, targetEvent, debugAppendix);
-
-        logger.info(String.format("Performing operation %s with following target event, id = %s, content = %s", operation, targetEvent.getId(), targetEvent.toPrettyString()));
-
-
-        // If description of the event contains special text saying "do not synchronize"....
-        if (skipSynchroDescriptionPattern != null && !skipSynchroDescriptionPattern.equals("") &&
-                (event != null) && (event.getDescription() != null) && event.getDescription().contains(skipSynchroDescriptionPattern))
+        // For the UPDATE operation only fields differing from the destination copy are sent (PATCH)
+        Event requestEvent = targetEvent;
+        if (operation == Operation.UPDATE)
         {
-            logger.debug(String.format("Source event %s contains skipSynchroDescriptionPattern text, so it will not be synchronized to destination calendar", event.getSummary()));
-            return;
+            requestEvent = diffEvent(targetEvent, mappedEvent);
+            if (requestEvent.isEmpty())
+            {
+                logger.debug(String.format("   -> event %s is in target calendar already up to date, so synchronization is skipped", targetEvent.getId()));
+                if (snapshot != null && !dryRun)
+                    snapshot.put(event, contentHash);
+                return;
+            }
         }
 
+        logger.info(String.format("Performing operation %s with following target event, id = %s, content = %s", operation, targetEvent.getId(), requestEvent.toPrettyString()));
+
+
         // If it is just dry text - in the last moment before changing the data exit the routine
         if (dryRun) {
             logger.debug("Dry run set, so no modification will be performed. Exiting syncEvent routine.");
             return;
         }
 
+        Span writeSpan = Tracing.write(settingsPrefix, sourceIdUnfixed);
+        try
+        {
+            writeEvent(operation, targetEvent, requestEvent, targetCalendar);
+        }
+        finally
+        {
+            writeSpan.finish(operation.name());
+        }
+
+        if (snapshot != null)
+        {
+            if (operation == Operation.DELETE)
+                snapshot.remove(sourceIdUnfixed);
+            else
+                snapshot.put(event, contentHash);
+        }
+    }
+
+    /**
+     * Sends the operation to the destination calendar
+     * @param operation operation to be performed
+     * @param targetEvent event in destination calendar (for DELETE and UPDATE) or new event (for INSERT)
+     * @param requestEvent changed fields of the event for UPDATE
+     * @param targetCalendar destination calendar
+     * @throws IOException
+     */
+    private void writeEvent(Operation operation, Event targetEvent, Event requestEvent, Calendar targetCalendar) throws IOException
+    {
         switch (operation)
         {
             case INSERT:
@@ -271,8 +981,8 @@ public class OneWaySync
                 logger.debug("Operation INSERT finished");
                 break;
             case UPDATE:
-                // https://developers.google.com/google-apps/calendar/v3/reference/events/update
-                targetCalendar.events().update(destinationCalendarName, targetEvent.getId(), targetEvent).execute();
+                // https://developers.google.com/google-apps/calendar/v3/reference/events/patch
+                targetCalendar.events().patch(destinationCalendarName, targetEvent.getId(), requestEvent).execute();
                 logger.debug("Operation UPDATE finished");
                 break;
             case DELETE:
@@ -357,7 +1067,12 @@ public class OneWaySync
         String sourceId = fixId(sourceIdUnfixed);
 
         // https://developers.google.com/google-apps/calendar/recurringevents
-        List<Event> recurringEvents = targetCalendar.events().instances(destinationCalendarName, event.getRecurringEventId()).setMaxResults(2000).execute().getItems();
+        Calendar.Events.Instances request = targetCalendar.events().instances(destinationCalendarName, event.getRecurringEventId()).setMaxResults(2000);
+
+        if (streaming)
+            return findRecurringEventStreaming(request, sourceIdUnfixed);
+
+        List<Event> recurringEvents = request.execute().getItems();
 
         logger.debug(String.format("Number of recurring events: %d", recurringEvents.size()));
         for (Event recEvent : recurringEvents)
@@ -372,6 +1087,44 @@ public class OneWaySync
         return null; // if event not found
     }
 
+    /**
+     * Streaming variant of findRecurringEvent - instances are parsed one by one from the response (through all pages)
+     * and parsing stops at the first matching instance, so the list of instances is never held in memory
+     * @param request instances request
+     * @param instanceId ID of the searched instance
+     * @return found instance or null if it doesn't exist
+     * @throws IOException
+     */
+    private Event findRecurringEventStreaming(Calendar.Events.Instances request, final String instanceId) throws IOException
+    {
+        final Event[] found = new Event[1];
+        String pageToken = null;
+        try
+        {
+            do
+            {
+                request.setPageToken(pageToken);
+                Events page = EventStream.parse(request.executeUnparsed(), destinationCalendar.getJsonFactory(), recEvent -> {
+                    if (!recEvent.getId().equals(instanceId))
+                        return true;
+                    found[0] = recEvent;
+                    return false;
+                });
+                pageToken = page.getNextPageToken();
+            } while (found[0] == null && pageToken != null);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during searching recurring event " + instanceId);
+        }
+
+        if (found[0] != null)
+            logger.debug(String.format("This is the correct recurring event to be updated - id %s " +
+                    "from %s to %s", found[0].getId(), found[0].getStart(), found[0].getEnd()));
+        return found[0];
+    }
+
 
     /**
      * Copies attributes from source event "event" to target event "targetEvent"
@@ -393,16 +1146,19 @@ public class OneWaySync
         targetEvent.setRecurrence(event.getRecurrence());
         targetEvent.setRecurringEventId(event.getRecurringEventId());
 
-        // As event sequence number we will take higher number from original event and event being synchronized.
-        // This number needs to increase (or remain same) on all synchronization requests.
-        Integer newSequence = Math.max(nvl(targetEvent.getSequence(), 0), nvl(event.getSequence(), 0));
-        targetEvent.setSequence(newSequence);
+        // Sequence number is used only for INSERT. Updates are sent as PATCH without sequence (see PATCHED_FIELDS),
+        // so the server keeps its own number and the "can only update once" problem doesn't occur.
         // https://stackoverflow.com/questions/9691665/google-calendar-api-can-only-update-event-once
         // https://stackoverflow.com/questions/8574088/google-calendar-api-v3-re-update-issue
+        targetEvent.setSequence(event.getSequence());
 
         if (! destinationEventColor.equals(""))
             targetEvent.setColorId(destinationEventColor);
 
+        // Mark the event as synchronized from the source calendar, used for pruning
+        targetEvent.setExtendedProperties(new Event.ExtendedProperties()
+                .setPrivate(Collections.singletonMap(SOURCE_PROPERTY, sourceMarker)));
+
         //targetEvent.setAttendees(filtersAttendees(event.getAttendees())); // do not put attendees to the new synchronized events,
         // otherwise the invited persons will see duplicate invitations from both of your calendars in their calendar.
 
@@ -410,6 +1166,46 @@ public class OneWaySync
     }
 
 
+    /**
+     * Compares mapped fields (PATCHED_FIELDS) of the event in destination calendar with the newly mapped event and
+     * returns event containing only fields which differ, so it can be sent as PATCH request.
+     * @param targetEvent event as it is stored in destination calendar
+     * @param mappedEvent event mapped from the source event
+     * @return event with differing fields only, empty event if nothing differs
+     */
+    private Event diffEvent(Event targetEvent, Event mappedEvent)
+    {
+        Event patch = new Event();
+        for (String field : PATCHED_FIELDS)
+        {
+            if (!isPatchedField(field))
+                continue;
+            Object newValue = mappedEvent.get(field);
+            Object oldValue = targetEvent.get(field);
+            if (Objects.equals(newValue, oldValue))
+                continue;
+
+            if (newValue == null)
+            {
+                // Field has to be cleared in destination, omitted field would be left unchanged by PATCH
+                patch.set(field, Data.nullOf(oldValue.getClass()));
+            } else {
+                patch.set(field, newValue);
+            }
+        }
+        return patch;
+    }
+
+    /**
+     * Returns false for fields which are not mapped by this job - colorId is owned by the destination calendar
+     * unless destination.color is set, so color chosen there is kept
+     */
+    private boolean isPatchedField(String field)
+    {
+        return !"colorId".equals(field) || !destinationEventColor.isEmpty();
+    }
+
+
     /*
      * Removes _ and all other not supported characters in the event id.
      * It is typically neccessary for repeating events, where the ID looks like rva3c7gdfup1gp6hb408hkeu4c_R20171018T130000
@@ -459,6 +1255,16 @@ public class OneWaySync
      */
     public void close()
     {
+        applier.close();
+        if (aborted)
+        {
+            // files of the job belong to the new owner now
+            sourceRuntimeSettings.close();
+            return;
+        }
+        retryQueue.save();
+        if (snapshot != null)
+            snapshot.save();
         sourceRuntimeSettings.save();
         sourceRuntimeSettings.close();
     }
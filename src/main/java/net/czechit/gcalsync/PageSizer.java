@@ -0,0 +1,105 @@
+package net.czechit.gcalsync;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Page size of the events list requests. The size is either fixed (pageSize) or adaptive - it grows while pages are
+ * loaded fast and are small, and shrinks when the page takes longer than targetLatency or its payload exceeds
+ * maxPayload, always within minimum, maximum and API limits.
+ */
+public class PageSizer
+{
+    private final static Logger logger = LoggerFactory.getLogger(PageSizer.class);
+
+    /** Maximal page size allowed by events.list */
+    public static final int API_MAX_PAGE_SIZE = 2500;
+
+    /** Page size used by API when none is requested */
+    private static final int API_DEFAULT_PAGE_SIZE = 250;
+
+    /** Current page size, null = API default */
+    private Integer pageSize;
+
+    private final boolean adaptive;
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final long targetLatencyMsec;
+    private final long maxPayloadBytes;
+
+    public PageSizer(Integer pageSize, boolean adaptive, int minPageSize, int maxPageSize, long targetLatencyMsec, long maxPayloadBytes)
+    {
+        this.adaptive = adaptive;
+        this.minPageSize = clamp(minPageSize, 1, API_MAX_PAGE_SIZE);
+        this.maxPageSize = clamp(maxPageSize, this.minPageSize, API_MAX_PAGE_SIZE);
+        this.targetLatencyMsec = targetLatencyMsec;
+        this.maxPayloadBytes = maxPayloadBytes;
+
+        if (pageSize != null)
+            this.pageSize = clamp(pageSize, 1, API_MAX_PAGE_SIZE);
+        else if (adaptive)
+            this.pageSize = clamp(API_DEFAULT_PAGE_SIZE, this.minPageSize, this.maxPageSize);
+    }
+
+    /**
+     * Loads page size settings (keys pageSize, pageSize.adaptive, pageSize.min, pageSize.max,
+     * pageSize.targetLatencyMsec, pageSize.maxPayloadKb)
+     */
+    public static PageSizer fromSettings(CalendarSettings settings, String prefix)
+    {
+        String size = settings.getNonmandatoryProperty(prefix, "pageSize");
+        String min = settings.getNonmandatoryProperty(prefix, "pageSize.min");
+        String max = settings.getNonmandatoryProperty(prefix, "pageSize.max");
+        String latency = settings.getNonmandatoryProperty(prefix, "pageSize.targetLatencyMsec");
+        String payload = settings.getNonmandatoryProperty(prefix, "pageSize.maxPayloadKb");
+        return new PageSizer(size.isEmpty() ? null : Integer.valueOf(size),
+                settings.getNonmandatoryProperty(prefix, "pageSize.adaptive").equalsIgnoreCase("TRUE"),
+                min.isEmpty() ? 50 : Integer.parseInt(min),
+                max.isEmpty() ? API_MAX_PAGE_SIZE : Integer.parseInt(max),
+                latency.isEmpty() ? 2000 : Long.parseLong(latency),
+                (payload.isEmpty() ? 4096 : Long.parseLong(payload)) * 1024);
+    }
+
+    /**
+     * Returns page size for the next request, null = API default
+     */
+    public Integer getPageSize()
+    {
+        return pageSize;
+    }
+
+    /**
+     * Records loaded page and adapts page size for the next request
+     * @param items number of events in the page
+     * @param latencyMsec time of loading the page
+     * @param payloadBytes size of the response
+     */
+    public void record(int items, long latencyMsec, long payloadBytes)
+    {
+        if (!adaptive)
+            return;
+
+        int newSize = pageSize;
+        if (latencyMsec > targetLatencyMsec || payloadBytes > maxPayloadBytes)
+        {
+            double ratio = Math.min((double) targetLatencyMsec / Math.max(1, latencyMsec), (double) maxPayloadBytes / Math.max(1, payloadBytes));
+            newSize = (int) (pageSize * ratio);
+        } else if (items >= pageSize && latencyMsec < targetLatencyMsec / 2 && payloadBytes < maxPayloadBytes / 2)
+        {
+            newSize = pageSize * 2; // page was full and cheap, larger pages mean less round trips
+        }
+        newSize = clamp(newSize, minPageSize, maxPageSize);
+
+        if (newSize != pageSize)
+        {
+            logger.debug(String.format("Page of %d events loaded in %d ms, %d bytes, changing page size from %d to %d",
+                    items, latencyMsec, payloadBytes, pageSize, newSize));
+            pageSize = newSize;
+        }
+    }
+
+    private static int clamp(int value, int min, int max)
+    {
+        return Math.max(min, Math.min(max, value));
+    }
+}
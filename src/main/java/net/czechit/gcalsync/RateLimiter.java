@@ -0,0 +1,62 @@
+package net.czechit.gcalsync;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Simple rate limiter ensuring minimal interval between two calls of acquire(). It is acquired once per synchronized
+ * event (see EventApplier), not per request.
+ * Instances are shared per account, so all synchronization jobs (and all threads of these jobs)
+ * writing to the same account respect one common limit.
+ */
+public class RateLimiter
+{
+    private static final Map<String, RateLimiter> limiters = new HashMap<String, RateLimiter>();
+
+    /** Minimal interval between two permits (in msec) */
+    private final long intervalMsec;
+
+    /** Time (in msec) when the next permit can be given */
+    private long nextPermitTime = 0;
+
+    public RateLimiter(long intervalMsec)
+    {
+        this.intervalMsec = intervalMsec;
+    }
+
+    /**
+     * Returns rate limiter shared for the account
+     * @param accountPrefix prefix of the account in settings, something like: account.1
+     * @param intervalMsec minimal interval between two calls, used only when the limiter is created
+     * @return shared rate limiter
+     */
+    public static synchronized RateLimiter forAccount(String accountPrefix, long intervalMsec)
+    {
+        RateLimiter limiter = limiters.get(accountPrefix);
+        if (limiter == null)
+        {
+            limiter = new RateLimiter(intervalMsec);
+            limiters.put(accountPrefix, limiter);
+        }
+        return limiter;
+    }
+
+    /**
+     * Blocks until the next permit is available
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException
+    {
+        long permitTime;
+        synchronized (this)
+        {
+            long now = System.currentTimeMillis();
+            permitTime = Math.max(now, nextPermitTime);
+            nextPermitTime = permitTime + intervalMsec;
+        }
+
+        long waitTime = permitTime - System.currentTimeMillis();
+        if (waitTime > 0)
+            Thread.sleep(waitTime);
+    }
+}
@@ -0,0 +1,187 @@
+package net.czechit.gcalsync;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.Key;
+import com.google.api.services.calendar.model.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Persistent queue of source events whose synchronization failed. Events are retried with exponential backoff
+ * and after maxAttempts failed attempts they are moved to the dead letter list, which is kept in the file
+ * for manual inspection. The queue is stored as JSON file next to the lastSyncTokenFile.
+ */
+public class RetryQueue
+{
+    private final static Logger logger = LoggerFactory.getLogger(RetryQueue.class);
+
+    private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+
+    /** One failed event */
+    public static class FailedEvent extends GenericJson
+    {
+        @Key
+        private Event event;
+
+        /** Class of the last exception */
+        @Key
+        private String errorClass;
+
+        /** Message of the last exception */
+        @Key
+        private String errorMessage;
+
+        /** Number of failed attempts */
+        @Key
+        private Integer attempts;
+
+        /** Time (in msec) when the event can be retried */
+        @Key
+        private Long nextAttemptAt;
+
+        public Event getEvent()
+        {
+            return event;
+        }
+    }
+
+    /** Content of the queue file */
+    public static class Content extends GenericJson
+    {
+        @Key
+        private List<FailedEvent> entries = new ArrayList<FailedEvent>();
+
+        @Key
+        private List<FailedEvent> deadLetters = new ArrayList<FailedEvent>();
+    }
+
+    private final String fileName;
+
+    /** Maximal number of attempts before the event is moved to dead letters */
+    private final int maxAttempts;
+
+    /** Delay (in msec) before the first retry, doubled with every next attempt */
+    private final long backoffMsec;
+
+    private Content content;
+
+    public RetryQueue(String fileName, int maxAttempts, long backoffMsec)
+    {
+        this.fileName = fileName;
+        this.maxAttempts = maxAttempts;
+        this.backoffMsec = backoffMsec;
+
+        try (FileInputStream in = new FileInputStream(fileName))
+        {
+            content = JSON_FACTORY.fromInputStream(in, Content.class);
+        }
+        catch (FileNotFoundException e)
+        {
+            content = new Content();
+        }
+        catch (Exception e)
+        {
+            logger.error("Problem in loading retry queue file " + fileName, e);
+            content = new Content();
+        }
+
+        if (content.entries == null)
+            content.entries = new ArrayList<FailedEvent>();
+        if (content.deadLetters == null)
+            content.deadLetters = new ArrayList<FailedEvent>();
+        logger.debug(String.format("Retry queue %s loaded, %d events waiting, %d dead letters",
+                fileName, content.entries.size(), content.deadLetters.size()));
+    }
+
+    /**
+     * Records failed synchronization of the event
+     * @param event source event
+     * @param attempts number of previous failed attempts
+     * @param e exception raised during synchronization
+     */
+    public synchronized void add(Event event, int attempts, Exception e)
+    {
+        remove(event.getId());
+
+        FailedEvent entry = new FailedEvent();
+        entry.event = event;
+        entry.errorClass = e.getClass().getName();
+        entry.errorMessage = e.getMessage();
+        entry.attempts = attempts + 1;
+        entry.nextAttemptAt = System.currentTimeMillis() + (backoffMsec << Math.min(attempts, 20));
+
+        if (entry.attempts >= maxAttempts)
+        {
+            logger.warn(String.format("Event %s failed %d times, moving it to dead letters", event.getId(), entry.attempts));
+            content.deadLetters.add(entry);
+        } else {
+            content.entries.add(entry);
+        }
+    }
+
+    /**
+     * Removes the event from the queue, used when newer change of the event arrives or is applied
+     * @param eventId ID of the source event
+     */
+    public synchronized void remove(String eventId)
+    {
+        Iterator<FailedEvent> it = content.entries.iterator();
+        while (it.hasNext())
+        {
+            if (it.next().event.getId().equals(eventId))
+                it.remove();
+        }
+    }
+
+    /**
+     * Takes all events which are ready for the next attempt out of the queue
+     * @return entries to be retried
+     */
+    public synchronized List<FailedEvent> takeDue()
+    {
+        long now = System.currentTimeMillis();
+        List<FailedEvent> due = new ArrayList<FailedEvent>();
+        Iterator<FailedEvent> it = content.entries.iterator();
+        while (it.hasNext())
+        {
+            FailedEvent entry = it.next();
+            if (entry.nextAttemptAt <= now)
+            {
+                due.add(entry);
+                it.remove();
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Returns number of attempts already made for the entry
+     */
+    public static int attempts(FailedEvent entry)
+    {
+        return (entry == null || entry.attempts == null) ? 0 : entry.attempts;
+    }
+
+    public synchronized void save()
+    {
+        try (FileOutputStream out = new FileOutputStream(new File(fileName)))
+        {
+            out.write(JSON_FACTORY.toPrettyString(content).getBytes("UTF-8"));
+        }
+        catch (IOException e)
+        {
+            logger.error(String.format("Error in saving retry queue file %s", fileName), e);
+        }
+    }
+}
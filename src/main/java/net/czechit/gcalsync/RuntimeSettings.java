@@ -18,6 +18,12 @@ public class RuntimeSettings
 
     private String lastSyncToken;
 
+    /** Time (in msec) of the last reconciliation of calendars */
+    private long lastReconcileTime;
+
+    /** End (in msec) of the sync horizon at the last synchronization, 0 if unknown */
+    private long horizonEnd;
+
     public RuntimeSettings(String fileName)
     {
         try
@@ -41,11 +47,15 @@ public class RuntimeSettings
     public void load()
     {
         lastSyncToken = (prop != null) ? prop.getProperty("lastSyncToken", "") : "";
+        lastReconcileTime = (prop != null) ? Long.parseLong(prop.getProperty("lastReconcileTime", "0")) : 0;
+        horizonEnd = (prop != null) ? Long.parseLong(prop.getProperty("horizonEnd", "0")) : 0;
     }
 
     public void save()
     {
         if (lastSyncToken != null) prop.setProperty("lastSyncToken", lastSyncToken);
+        prop.setProperty("lastReconcileTime", Long.toString(lastReconcileTime));
+        prop.setProperty("horizonEnd", Long.toString(horizonEnd));
 
         output = null;
         try
@@ -94,4 +104,24 @@ public class RuntimeSettings
     {
         this.lastSyncToken = lastSyncToken;
     }
+
+    public long getLastReconcileTime()
+    {
+        return lastReconcileTime;
+    }
+
+    public void setLastReconcileTime(long lastReconcileTime)
+    {
+        this.lastReconcileTime = lastReconcileTime;
+    }
+
+    public long getHorizonEnd()
+    {
+        return horizonEnd;
+    }
+
+    public void setHorizonEnd(long horizonEnd)
+    {
+        this.horizonEnd = horizonEnd;
+    }
 }
@@ -0,0 +1,151 @@
+package net.czechit.gcalsync;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventDateTime;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Time window (relative to now) of events being synchronized, like -30 to +365 days.
+ * Horizon is applied to single events and instances of recurring events; master of the recurring event is inside
+ * the horizon if any of its instances can be inside it.
+ */
+public class SyncHorizon
+{
+    private static final long DAY_MSEC = 24L * 3600 * 1000;
+
+    private static final Pattern UNTIL_PATTERN = Pattern.compile("UNTIL=(\\d{8})");
+
+    /** Number of days in the past, null = unlimited */
+    private final Integer pastDays;
+
+    /** Number of days in the future, null = unlimited */
+    private final Integer futureDays;
+
+    public SyncHorizon(Integer pastDays, Integer futureDays)
+    {
+        this.pastDays = pastDays;
+        this.futureDays = futureDays;
+    }
+
+    /**
+     * Loads horizon from settings (keys horizon.pastDays and horizon.futureDays)
+     * @return horizon or null if none of the keys is set
+     */
+    public static SyncHorizon fromSettings(CalendarSettings settings, String prefix)
+    {
+        String past = settings.getNonmandatoryProperty(prefix, "horizon.pastDays");
+        String future = settings.getNonmandatoryProperty(prefix, "horizon.futureDays");
+        if (past.isEmpty() && future.isEmpty())
+            return null;
+
+        return new SyncHorizon(past.isEmpty() ? null : Integer.valueOf(past),
+                future.isEmpty() ? null : Integer.valueOf(future));
+    }
+
+    /** Start of the horizon (in msec), Long.MIN_VALUE if unlimited */
+    public long getStart()
+    {
+        return (pastDays == null) ? Long.MIN_VALUE : System.currentTimeMillis() - pastDays * DAY_MSEC;
+    }
+
+    /** End of the horizon (in msec), Long.MAX_VALUE if unlimited */
+    public long getEnd()
+    {
+        return (futureDays == null) ? Long.MAX_VALUE : System.currentTimeMillis() + futureDays * DAY_MSEC;
+    }
+
+    public boolean hasStart()
+    {
+        return pastDays != null;
+    }
+
+    public boolean hasEnd()
+    {
+        return futureDays != null;
+    }
+
+    /**
+     * Returns true if the change of the source event is inside the horizon and should be synchronized
+     * @param event source event
+     */
+    public boolean contains(Event event)
+    {
+        long start = getStart();
+        long end = getEnd();
+        boolean instance = event.getRecurringEventId() != null && !event.getRecurringEventId().isEmpty();
+
+        if ("cancelled".equals(event.getStatus()))
+        {
+            // Deleted events carry only their id, deleted instances also their original start
+            Long originalStart = toMillis(event.getOriginalStartTime());
+            return !instance || originalStart == null || (originalStart >= start && originalStart <= end);
+        }
+
+        Long eventStart = toMillis(event.getStart());
+        Long eventEnd = toMillis(event.getEnd());
+        if (eventStart != null && eventStart > end)
+            return false;
+
+        if (!instance && event.getRecurrence() != null && !event.getRecurrence().isEmpty())
+        {
+            // Master of the recurring event - it is outside only if the whole series ended before the horizon
+            Long until = recurrenceUntil(event.getRecurrence());
+            return until == null || until >= start;
+        }
+
+        return eventEnd == null || eventEnd >= start;
+    }
+
+    /**
+     * Returns end of the recurrence (UNTIL part of the RRULE) or null if the recurrence is not limited by UNTIL
+     */
+    public static Long recurrenceUntil(List<String> recurrence)
+    {
+        for (String rule : recurrence)
+        {
+            if (!rule.startsWith("RRULE:"))
+                continue;
+
+            Matcher m = UNTIL_PATTERN.matcher(rule);
+            if (!m.find())
+                return null; // infinite or limited by COUNT, which is not evaluated
+
+            try
+            {
+                SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+                format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                return format.parse(m.group(1)).getTime() + DAY_MSEC;
+            }
+            catch (ParseException e)
+            {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Converts start/end of the event to msec
+     * @return time in msec or null if not set
+     */
+    public static Long toMillis(EventDateTime time)
+    {
+        if (time == null)
+            return null;
+        DateTime dt = (time.getDateTime() != null) ? time.getDateTime() : time.getDate();
+        return (dt != null) ? dt.getValue() : null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("-%s..+%s days", (pastDays == null) ? "inf" : pastDays, (futureDays == null) ? "inf" : futureDays);
+    }
+}
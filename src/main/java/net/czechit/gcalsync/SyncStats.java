@@ -0,0 +1,153 @@
+package net.czechit.gcalsync;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of one synchronization run, updated from all threads applying events
+ */
+public class SyncStats
+{
+    /** Number of events submitted for synchronization */
+    private final AtomicInteger synchronizedEvents = new AtomicInteger();
+
+    /** Number of events skipped by the filter */
+    private final AtomicInteger skippedEvents = new AtomicInteger();
+
+    /** Number of changes dropped because they are outside of the sync horizon */
+    private final AtomicInteger outOfHorizonEvents = new AtomicInteger();
+
+    /** Number of destination events deleted because they left the sync horizon */
+    private final AtomicInteger prunedEvents = new AtomicInteger();
+
+    /** Number of events synchronized again because reconciliation found them different */
+    private final AtomicInteger repairedEvents = new AtomicInteger();
+
+    /** Number of destination events deleted by reconciliation because they don't exist in source calendar */
+    private final AtomicInteger orphansDeleted = new AtomicInteger();
+
+    /** Number of events taken from the retry queue */
+    private final AtomicInteger retriedEvents = new AtomicInteger();
+
+    /** Number of events whose synchronization failed (and were put to the retry queue) */
+    private final AtomicInteger failedEvents = new AtomicInteger();
+
+    /** Number of pages of changes loaded from source calendar */
+    private final AtomicInteger pagesFetched = new AtomicInteger();
+
+    /** Total time (in msec) of loading the pages */
+    private final AtomicLong pageLatencyMsec = new AtomicLong();
+
+    /**
+     * Records one loaded page of changes
+     * @param latencyMsec time of loading the page
+     */
+    public void recordPage(long latencyMsec)
+    {
+        pagesFetched.incrementAndGet();
+        pageLatencyMsec.addAndGet(latencyMsec);
+    }
+
+    public int incrementSynchronized()
+    {
+        return synchronizedEvents.incrementAndGet();
+    }
+
+    public int incrementSkipped()
+    {
+        return skippedEvents.incrementAndGet();
+    }
+
+    public int incrementOutOfHorizon()
+    {
+        return outOfHorizonEvents.incrementAndGet();
+    }
+
+    public int incrementPruned()
+    {
+        return prunedEvents.incrementAndGet();
+    }
+
+    public int incrementRepaired()
+    {
+        return repairedEvents.incrementAndGet();
+    }
+
+    public int incrementOrphansDeleted()
+    {
+        return orphansDeleted.incrementAndGet();
+    }
+
+    public int incrementRetried()
+    {
+        return retriedEvents.incrementAndGet();
+    }
+
+    public int incrementFailed()
+    {
+        return failedEvents.incrementAndGet();
+    }
+
+    public int getSynchronized()
+    {
+        return synchronizedEvents.get();
+    }
+
+    public int getSkipped()
+    {
+        return skippedEvents.get();
+    }
+
+    public int getOutOfHorizon()
+    {
+        return outOfHorizonEvents.get();
+    }
+
+    public int getPruned()
+    {
+        return prunedEvents.get();
+    }
+
+    public int getRepaired()
+    {
+        return repairedEvents.get();
+    }
+
+    public int getOrphansDeleted()
+    {
+        return orphansDeleted.get();
+    }
+
+    public int getRetried()
+    {
+        return retriedEvents.get();
+    }
+
+    public int getFailed()
+    {
+        return failedEvents.get();
+    }
+
+    public int getPagesFetched()
+    {
+        return pagesFetched.get();
+    }
+
+    /**
+     * Returns average time (in msec) of loading one page, 0 if no page was loaded
+     */
+    public long getAveragePageLatencyMsec()
+    {
+        int pages = pagesFetched.get();
+        return pages == 0 ? 0 : pageLatencyMsec.get() / pages;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("synchronized = %d, skipped = %d, out of horizon = %d, pruned = %d, repaired = %d, " +
+                        "orphans deleted = %d, retried = %d, failed = %d, pages fetched = %d, average page latency = %d ms",
+                getSynchronized(), getSkipped(), getOutOfHorizon(), getPruned(), getRepaired(),
+                getOrphansDeleted(), getRetried(), getFailed(), getPagesFetched(), getAveragePageLatencyMsec());
+    }
+}
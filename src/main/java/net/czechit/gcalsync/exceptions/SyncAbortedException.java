@@ -0,0 +1,11 @@
+package net.czechit.gcalsync.exceptions;
+
+import java.io.IOException;
+
+public class SyncAbortedException extends IOException
+{
+    public SyncAbortedException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,104 @@
+package net.czechit.gcalsync.jfr;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Summarizes GCalSync events from the Java Flight Recorder file into latency breakdown per job and phase.
+ *
+ * Usage: java -cp gcalsync.jar net.czechit.gcalsync.jfr.JfrReport recording.jfr
+ *
+ * Recording can be created by running the application with
+ * -XX:StartFlightRecording=filename=recording.jfr,settings=profile
+ */
+public class JfrReport
+{
+    private static final String EVENT_PREFIX = "net.czechit.gcalsync.";
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 1)
+        {
+            System.err.println("Usage: JfrReport <recording.jfr>");
+            System.exit(1);
+        }
+
+        // job -> phase -> durations in nanoseconds
+        Map<String, Map<String, List<Long>>> durations = new TreeMap<String, Map<String, List<Long>>>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(Paths.get(args[0])))
+        {
+            String type = event.getEventType().getName();
+            if (!type.startsWith(EVENT_PREFIX))
+                continue;
+
+            String job = event.hasField("job") && event.getString("job") != null ? event.getString("job") : "-";
+            String phase = type.substring(EVENT_PREFIX.length());
+            Map<String, List<Long>> phases = durations.get(job);
+            if (phases == null)
+            {
+                phases = new TreeMap<String, List<Long>>();
+                durations.put(job, phases);
+            }
+            List<Long> list = phases.get(phase);
+            if (list == null)
+            {
+                list = new ArrayList<Long>();
+                phases.put(phase, list);
+            }
+            list.add(event.getDuration().toNanos());
+        }
+
+        if (durations.isEmpty())
+        {
+            System.out.println("No GCalSync events found in the recording");
+            return;
+        }
+
+        System.out.println(String.format("%-12s %-10s %8s %12s %10s %10s %10s %10s %7s",
+                "Job", "Phase", "Count", "Total ms", "Avg ms", "P50 ms", "P95 ms", "Max ms", "Share"));
+        for (Map.Entry<String, Map<String, List<Long>>> job : durations.entrySet())
+        {
+            long jobTotal = 0;
+            for (List<Long> list : job.getValue().values())
+                jobTotal += sum(list);
+
+            for (Map.Entry<String, List<Long>> phase : job.getValue().entrySet())
+            {
+                List<Long> list = phase.getValue();
+                Collections.sort(list);
+                long total = sum(list);
+                System.out.println(String.format("%-12s %-10s %8d %12.1f %10.2f %10.2f %10.2f %10.2f %6.1f%%",
+                        job.getKey(), phase.getKey(), list.size(), ms(total), ms(total / list.size()),
+                        ms(percentile(list, 50)), ms(percentile(list, 95)), ms(list.get(list.size() - 1)),
+                        (jobTotal > 0) ? 100.0 * total / jobTotal : 0.0));
+            }
+        }
+    }
+
+    private static long sum(List<Long> list)
+    {
+        long sum = 0;
+        for (Long v : list)
+            sum += v;
+        return sum;
+    }
+
+    private static long percentile(List<Long> sorted, int percentile)
+    {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    private static double ms(long nanos)
+    {
+        return nanos / 1000000.0;
+    }
+}
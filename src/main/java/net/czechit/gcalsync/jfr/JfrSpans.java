@@ -0,0 +1,32 @@
+package net.czechit.gcalsync.jfr;
+
+/**
+ * Creates Java Flight Recorder spans. Loaded only when jdk.jfr is available (see Tracing).
+ */
+class JfrSpans
+{
+    static Span pageFetch(String job, String eventId)
+    {
+        return new PageFetchSpan().start(job, eventId);
+    }
+
+    static Span lookup(String job, String eventId)
+    {
+        return new LookupSpan().start(job, eventId);
+    }
+
+    static Span map(String job, String eventId)
+    {
+        return new MapSpan().start(job, eventId);
+    }
+
+    static Span write(String job, String eventId)
+    {
+        return new WriteSpan().start(job, eventId);
+    }
+
+    static Span throttle(String job, String eventId)
+    {
+        return new ThrottleSpan().start(job, eventId);
+    }
+}
@@ -0,0 +1,12 @@
+package net.czechit.gcalsync.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.czechit.gcalsync.Lookup")
+@Label("Lookup")
+@Description("Searching the event in the destination calendar")
+public class LookupSpan extends SyncSpan
+{
+}
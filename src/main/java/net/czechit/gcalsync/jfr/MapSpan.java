@@ -0,0 +1,12 @@
+package net.czechit.gcalsync.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.czechit.gcalsync.Map")
+@Label("Map")
+@Description("Mapping the source event to the destination event")
+public class MapSpan extends SyncSpan
+{
+}
@@ -0,0 +1,12 @@
+package net.czechit.gcalsync.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.czechit.gcalsync.PageFetch")
+@Label("Page Fetch")
+@Description("Loading one page of changes from the source calendar")
+public class PageFetchSpan extends SyncSpan
+{
+}
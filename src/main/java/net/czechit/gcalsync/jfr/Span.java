@@ -0,0 +1,16 @@
+package net.czechit.gcalsync.jfr;
+
+/**
+ * Measured phase of the synchronization, created by Tracing
+ */
+public interface Span
+{
+    /** Span doing nothing, used when Java Flight Recorder is not available */
+    Span NONE = operation -> { };
+
+    /**
+     * Ends measuring of the phase and records it
+     * @param operation operation performed in the phase (like INSERT, UPDATE), may be null
+     */
+    void finish(String operation);
+}
@@ -0,0 +1,51 @@
+package net.czechit.gcalsync.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Base of Java Flight Recorder events measuring phases of the synchronization. Events are committed only if
+ * the recording of them is enabled, otherwise they cost almost nothing.
+ *
+ * Spans are created through Tracing, which checks availability of jdk.jfr.
+ */
+@Category({"GCalSync", "Synchronization"})
+@StackTrace(false)
+public abstract class SyncSpan extends Event implements Span
+{
+    @Label("Job")
+    protected String job;
+
+    @Label("Event ID")
+    protected String eventId;
+
+    @Label("Operation")
+    protected String operation;
+
+    /**
+     * Starts measuring of the phase
+     * @param job job prefix, like sync.1
+     * @param eventId ID of the source event, null for phases not related to one event
+     * @return this span
+     */
+    public SyncSpan start(String job, String eventId)
+    {
+        this.job = job;
+        this.eventId = eventId;
+        begin();
+        return this;
+    }
+
+    /**
+     * Ends measuring of the phase and records the event
+     * @param operation operation performed in the phase (like INSERT, UPDATE), may be null
+     */
+    @Override
+    public void finish(String operation)
+    {
+        this.operation = operation;
+        commit();
+    }
+}
@@ -0,0 +1,12 @@
+package net.czechit.gcalsync.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.czechit.gcalsync.Throttle")
+@Label("Throttle")
+@Description("Waiting for the rate limiter and free thread")
+public class ThrottleSpan extends SyncSpan
+{
+}
@@ -0,0 +1,60 @@
+package net.czechit.gcalsync.jfr;
+
+/**
+ * Entry point of tracing phases of the synchronization. Spans are recorded as Java Flight Recorder events
+ * if the runtime contains jdk.jfr module, otherwise they do nothing. Availability is checked once, classes
+ * depending on jdk.jfr are never loaded without it.
+ *
+ * Usage: Span span = Tracing.lookup(job, eventId); ... span.finish(operation);
+ */
+public final class Tracing
+{
+    private static final boolean AVAILABLE = isJfrAvailable();
+
+    private Tracing()
+    {
+    }
+
+    private static boolean isJfrAvailable()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event", false, Tracing.class.getClassLoader());
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    /** Loading of one page of changes from source calendar */
+    public static Span pageFetch(String job, String eventId)
+    {
+        return AVAILABLE ? JfrSpans.pageFetch(job, eventId) : Span.NONE;
+    }
+
+    /** Looking up the event in destination calendar */
+    public static Span lookup(String job, String eventId)
+    {
+        return AVAILABLE ? JfrSpans.lookup(job, eventId) : Span.NONE;
+    }
+
+    /** Mapping of source event to destination event */
+    public static Span map(String job, String eventId)
+    {
+        return AVAILABLE ? JfrSpans.map(job, eventId) : Span.NONE;
+    }
+
+    /** Writing the event to destination calendar */
+    public static Span write(String job, String eventId)
+    {
+        return AVAILABLE ? JfrSpans.write(job, eventId) : Span.NONE;
+    }
+
+    /** Waiting for the rate limiter */
+    public static Span throttle(String job, String eventId)
+    {
+        return AVAILABLE ? JfrSpans.throttle(job, eventId) : Span.NONE;
+    }
+}
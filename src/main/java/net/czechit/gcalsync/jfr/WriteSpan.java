@@ -0,0 +1,12 @@
+package net.czechit.gcalsync.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("net.czechit.gcalsync.Write")
+@Label("Write")
+@Description("Writing the event to the destination calendar")
+public class WriteSpan extends SyncSpan
+{
+}